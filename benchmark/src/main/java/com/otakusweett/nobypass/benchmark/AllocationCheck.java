@@ -0,0 +1,83 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.otakusweeett.nobypass.AddressMatcher;
+import com.otakusweeett.nobypass.ReservedUUIDManager;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.IntPredicate;
+
+/**
+ * Checks that the reserved UUID lookup and the IPv4 address range lookup allocate nothing, by counting the bytes allocated by
+ * the current thread over many warmed-up calls. Exits with status 1 if any case allocates.
+ */
+public final class AllocationCheck {
+
+    private static final int SAMPLES = 1024;
+    private static final int WARMUP_CALLS = 2_000_000;
+    private static final int MEASURED_CALLS = 10_000_000;
+
+    private AllocationCheck() {
+    }
+
+    public static void main(String[] args) {
+        int reservedUUIDs = 1000;
+        Path dataDirectory = BenchmarkEnvironment.createDataDirectory(1, reservedUUIDs);
+        boolean passed;
+        try {
+            ReservedUUIDManager manager = new ReservedUUIDManager(Map.of(), dataDirectory.resolve("reserved.txt"));
+            String[] reservedNames = new String[SAMPLES];
+            UUID[] reservedIds = new UUID[SAMPLES];
+            String[] otherNames = new String[SAMPLES];
+            UUID[] otherIds = new UUID[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                int reserved = i % reservedUUIDs;
+                reservedNames[i] = BenchmarkEnvironment.reservedUsername(reserved).toUpperCase();
+                reservedIds[i] = BenchmarkEnvironment.reservedUUID(reserved);
+                otherNames[i] = "Player" + i;
+                otherIds[i] = new UUID(i, ~i);
+            }
+
+            passed = check("reserved match", i -> manager.isUUIDReserved(reservedNames[i], reservedIds[i]));
+            passed &= check("reserved mismatch", i -> manager.isUUIDReserved(reservedNames[i], otherIds[i]));
+            passed &= check("unreserved", i -> manager.isUUIDReserved(otherNames[i], otherIds[i]));
+
+            AddressMatcher matcher = AddressMatcher.compile(List.of("10.1.0.0/16"),
+                    List.of("10.0.0.0/8", "192.0.2.0/24", "203.0.113.0/24"));
+            InetAddress[] addresses = new InetAddress[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                addresses[i] = AddressMatcher.parseLiteral("10." + (i & 3) + "." + (i >> 8) + "." + (i & 0xFF));
+            }
+            passed &= check("ipv4 address range", i -> matcher.isDenied(addresses[i]));
+        } finally {
+            BenchmarkEnvironment.delete(dataDirectory);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean check(String name, IntPredicate operation) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int sink = 0;
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            sink += operation.test(i & (SAMPLES - 1)) ? 1 : 0;
+        }
+
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            sink += operation.test(i & (SAMPLES - 1)) ? 1 : 0;
+        }
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - before;
+
+        // A few bytes can come from the measurement itself; anything per call would be millions
+        boolean passed = allocated < MEASURED_CALLS / 100;
+        System.out.printf("%-18s %s: %,d bytes over %,d calls (%.4f bytes/call, %d)%n",
+                name, passed ? "OK  " : "FAIL", allocated, MEASURED_CALLS, (double) allocated / MEASURED_CALLS, sink);
+        return passed;
+    }
+}
@@ -0,0 +1,82 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.otakusweeett.nobypass.NoBypass;
+import com.velocitypowered.api.proxy.ProxyServer;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Builds a throwaway plugin data directory with generated domains and reserved UUIDs.
+ */
+final class BenchmarkEnvironment {
+
+    private BenchmarkEnvironment() {
+    }
+
+    static String allowedDomain(int index) {
+        return "play" + index + ".example" + index + ".net";
+    }
+
+    static String reservedUsername(int index) {
+        return "Reserved" + index;
+    }
+
+    static UUID reservedUUID(int index) {
+        return new UUID(0x4e6f427970617373L, index);
+    }
+
+    static Path createDataDirectory(int domains, int reservedUUIDs) {
+        return createDataDirectory(domains, reservedUUIDs, "throttle:\n  enabled: false\nwebhook:\n  enabled: false\n");
+    }
+
+    /**
+     * Creates a data directory with extra configuration, such as the throttle, webhook or
+     * address range sections.
+     *
+     * @param extraConfig YAML appended to the generated config.yml.
+     */
+    static Path createDataDirectory(int domains, int reservedUUIDs, String extraConfig) {
+        try {
+            Path dataDirectory = Files.createTempDirectory("nobypass-benchmark");
+            try (Writer writer = Files.newBufferedWriter(dataDirectory.resolve("config.yml"))) {
+                writer.write("enabled: true\ndebug: false\nlang: en\n");
+                writer.write("allowed-domains:\n");
+                for (int i = 0; i < domains; i++) {
+                    // Mix exact and wildcard rules, as a real network would
+                    writer.write(i % 4 == 3 ? "  - \"*.example" + i + ".net\"\n" : "  - \"" + allowedDomain(i) + "\"\n");
+                }
+                writer.write(extraConfig);
+                writer.write("reserved-uuid: {}\n");
+                writer.write("reserved-uuid-file: \"reserved.txt\"\n");
+            }
+            try (Writer writer = Files.newBufferedWriter(dataDirectory.resolve("reserved.txt"))) {
+                for (int i = 0; i < reservedUUIDs; i++) {
+                    writer.write(reservedUsername(i) + " " + reservedUUID(i) + "\n");
+                }
+            }
+            return dataDirectory;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static NoBypass createPlugin(Path dataDirectory, ProxyServer proxyServer) {
+        return new NoBypass(NOPLogger.NOP_LOGGER, proxyServer, Stubs.commandManager(), dataDirectory, null);
+    }
+
+    static void delete(Path dataDirectory) {
+        try (Stream<Path> files = Files.walk(dataDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.otakusweeett.nobypass.DomainMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DomainMatcherBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    @Param({"1", "50", "500"})
+    public int domains;
+
+    private DomainMatcher matcher;
+    private String[] allowedHosts;
+    private String[] deniedHosts;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < domains; i++) {
+            patterns.add(i % 4 == 3 ? "*.example" + i + ".net" : BenchmarkEnvironment.allowedDomain(i));
+        }
+        matcher = DomainMatcher.compile(patterns);
+
+        SplittableRandom random = new SplittableRandom(42);
+        allowedHosts = new String[SAMPLES];
+        deniedHosts = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            allowedHosts[i] = BenchmarkEnvironment.allowedDomain(random.nextInt(domains));
+            deniedHosts[i] = "leaked" + i + ".bypass.example.org";
+        }
+    }
+
+    @Benchmark
+    public boolean allowed() {
+        return matcher.matches(allowedHosts[cursor++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public boolean denied() {
+        return matcher.matches(deniedHosts[cursor++ & (SAMPLES - 1)]);
+    }
+}
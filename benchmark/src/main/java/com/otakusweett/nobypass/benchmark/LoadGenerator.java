@@ -0,0 +1,384 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.otakusweeett.nobypass.LatencyHistogram;
+import com.otakusweeett.nobypass.NoBypass;
+import com.otakusweeett.nobypass.WebhookManager;
+import com.sun.net.httpserver.HttpServer;
+import com.velocitypowered.api.event.connection.LoginEvent;
+import com.velocitypowered.api.event.connection.PreLoginEvent;
+import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.Player;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives NoBypass.onPreLogin and NoBypass.onPlayerLogin with stub connections at a fixed rate
+ * and traffic mix, with online players receiving alerts and a local webhook endpoint, and reports
+ * sustained logins per second, latency percentiles, allocation per login and webhook queue
+ * behavior. Unlike the JMH benchmarks, the periodic tasks (alert flushing, cache eviction and
+ * webhook delivery) run while logins are measured.
+ * <p>
+ * Latency is measured from the time a login was scheduled to start, so a generator that falls
+ * behind its rate reports the queueing delay instead of hiding it.
+ * <p>
+ * Every login has a fresh address, username and domain, except those of the repeat offenders,
+ * so only they hit the denial cache. Each thread replaces a login with a new one after running
+ * it, outside the measured latency and allocation.
+ */
+public final class LoadGenerator {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: LoadGenerator [options]",
+            "  --rate <n>              Target logins per second, 0 for as fast as possible (default 5000)",
+            "  --duration <s>          Measured seconds (default 30)",
+            "  --warmup <s>            Unmeasured seconds before the measurement (default 5)",
+            "  --threads <n>           Generator threads (default 4)",
+            "  --online <n>            Online players with the notify permission (default 2000)",
+            "  --domains <n>           Allowed domain rules (default 50)",
+            "  --reserved <n>          Reserved UUIDs (default 10000)",
+            "  --wrong-domain <%>      Logins through a domain that is not allowed (default 10)",
+            "  --uuid-mismatch <%>     Logins with a reserved username and the wrong UUID (default 5)",
+            "  --repeat <%>            Logins from a few bots retrying the same blocked connection (default 10)",
+            "  --denied-address <%>    Logins from a denied address range (default 0)",
+            "  --pool <n>              Logins generated ahead per thread (default 1024)",
+            "  --throttle              Enable the per-IP throttle (disabled by default)",
+            "  --no-webhook            Disable the webhook",
+            "  --webhook-status <code> HTTP status returned by the local webhook endpoint (default 204)",
+            "  --webhook-delay <ms>    Response time of the local webhook endpoint (default 50)");
+
+    private static final String DENIED_RANGE = "203.0.113.0/24";
+    private static final int REPEAT_OFFENDERS = 16;
+
+    private final Map<String, String> options;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder logins = new LongAdder();
+    private final LongAdder loginAllocatedBytes = new LongAdder();
+    private final LongAdder generatorAllocatedBytes = new LongAdder();
+    private final LongAdder alertMessages = new LongAdder();
+    private final LongAdder webhookRequests = new LongAdder();
+    private volatile boolean measuring;
+    private volatile boolean measurementOver;
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (!name.startsWith("--") || name.equals("--help")) {
+                System.out.println(USAGE);
+                return;
+            }
+            boolean flag = name.equals("--throttle") || name.equals("--no-webhook");
+            if (!flag && i + 1 == args.length) {
+                System.out.println("Missing value for " + name + "\n" + USAGE);
+                return;
+            }
+            options.put(name.substring(2), flag ? "true" : args[++i]);
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private int option(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void run() throws Exception {
+        int rate = option("rate", 5000);
+        int duration = option("duration", 30);
+        int warmup = option("warmup", 5);
+        int threads = option("threads", 4);
+        int online = option("online", 2000);
+        int domains = option("domains", 50);
+        int reserved = option("reserved", 10000);
+        int pool = option("pool", 1024);
+        boolean webhook = !options.containsKey("no-webhook");
+
+        HttpServer webhookServer = webhook ? startWebhookServer(option("webhook-status", 204), option("webhook-delay", 50)) : null;
+        StringBuilder config = new StringBuilder();
+        config.append("throttle:\n  enabled: ").append(options.containsKey("throttle")).append('\n');
+        config.append("webhook:\n  enabled: ").append(webhook).append('\n');
+        if (webhookServer != null) {
+            config.append("  url: \"http://127.0.0.1:").append(webhookServer.getAddress().getPort()).append("/webhook\"\n");
+        }
+        config.append("denied-cidrs:\n  - \"").append(DENIED_RANGE).append("\"\n");
+
+        List<Player> onlinePlayers = new ArrayList<>(online);
+        for (int i = 0; i < online; i++) {
+            onlinePlayers.add(Stubs.notifyRecipient("Staff" + i, new InetSocketAddress("127.0.0.1", 30000 + i % 30000), alertMessages));
+        }
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "LoadGenerator-Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Path dataDirectory = BenchmarkEnvironment.createDataDirectory(domains, reserved, config.toString());
+        NoBypass plugin = BenchmarkEnvironment.createPlugin(dataDirectory, Stubs.proxyServer(onlinePlayers, scheduler));
+        plugin.onProxyInitialization(new ProxyInitializeEvent());
+
+        System.out.printf("Generating %s logins/s on %d thread(s) for %ds after a %ds warmup, %d online notify player(s)%n",
+                rate == 0 ? "unlimited" : String.valueOf(rate), threads, duration, warmup, online);
+        System.out.printf("Mix: %d%% wrong domain, %d%% UUID mismatch, %d%% repeat offenders, %d%% denied address%n",
+                option("wrong-domain", 10), option("uuid-mismatch", 5), option("repeat", 10), option("denied-address", 0));
+
+        CountDownLatch finished = new CountDownLatch(threads);
+        CountDownLatch stopped = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Traffic traffic = new Traffic(t, threads, domains, reserved);
+            LoginValidationBenchmark.Attempt[] attempts = new LoginValidationBenchmark.Attempt[pool];
+            for (int i = 0; i < pool; i++) {
+                attempts[i] = traffic.next();
+            }
+            long intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(threads) / rate;
+            Thread thread = new Thread(() -> {
+                try {
+                    drive(plugin, attempts, traffic, intervalNanos, stopped);
+                } finally {
+                    finished.countDown();
+                }
+            }, "LoadGenerator-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        Map<String, Long> outcomesBefore = plugin.getValidationMetrics().getOutcomeCounts();
+        long alertsBefore = alertMessages.sum();
+        long rejectedBefore = plugin.getRejectedSideEffects();
+        WebhookManager webhookManager = plugin.getWebhookManager();
+        long queuedBefore = webhookManager.getQueuedCount();
+        long requestsBefore = webhookRequests.sum();
+        long processAllocatedBefore = processAllocatedBytes();
+        measuring = true;
+        long start = System.nanoTime();
+
+        long maxQueueDepth = 0;
+        for (int second = 1; second <= duration; second++) {
+            long previous = logins.sum();
+            Thread.sleep(1000);
+            long depth = webhookManager.getQueueDepth();
+            maxQueueDepth = Math.max(maxQueueDepth, depth);
+            System.out.printf("%4ds %,10d logins/s   webhook queue %,8d   alerts delivered %,10d%s%n",
+                    second, logins.sum() - previous, depth, alertMessages.sum() - alertsBefore,
+                    plugin.getAttackMode().isActive() ? "   attack mode" : "");
+        }
+
+        measuring = false;
+        measurementOver = true;
+        long elapsed = System.nanoTime() - start;
+        stopped.await();
+        long processAllocated = processAllocatedBytes() - processAllocatedBefore - generatorAllocatedBytes.sum();
+        running = false;
+        finished.await();
+
+        long count = logins.sum();
+        System.out.println();
+        System.out.printf("Sustained throughput: %,.0f logins/s (%,d logins in %.1fs)%n",
+                count * 1e9 / elapsed, count, elapsed / 1e9);
+        System.out.printf("Latency: mean %s, p50 %s, p99 %s, p99.9 %s%n",
+                micros(latency.getMean()), micros(latency.getPercentile(50)),
+                micros(latency.getPercentile(99)), micros(latency.getPercentile(99.9)));
+        System.out.printf("Allocation: %,d bytes per login on the login path, %,d bytes per login in the whole process%n",
+                count == 0 ? 0 : loginAllocatedBytes.sum() / count, count == 0 ? 0 : processAllocated / count);
+
+        Map<String, Long> outcomes = plugin.getValidationMetrics().getOutcomeCounts();
+        StringBuilder outcomeLine = new StringBuilder("Outcomes:");
+        for (Map.Entry<String, Long> entry : outcomes.entrySet()) {
+            long delta = entry.getValue() - outcomesBefore.getOrDefault(entry.getKey(), 0L);
+            if (delta > 0) {
+                outcomeLine.append(' ').append(entry.getKey()).append('=').append(String.format("%,d", delta));
+            }
+        }
+        System.out.println(outcomeLine);
+        System.out.printf("Denial cache: %.1f%% hit ratio, %,d entries%n",
+                plugin.getDenialCache().getHitRatio() * 100, plugin.getDenialCache().size());
+        System.out.printf("Attack mode: entered %d time(s), %s at the end%n",
+                plugin.getAttackMode().getAttackCount(), plugin.getAttackMode().isActive() ? "active" : "inactive");
+        System.out.printf("Alerts: %,d messages delivered to online players, %,d side effects rejected by the worker pool%n",
+                alertMessages.sum() - alertsBefore, plugin.getRejectedSideEffects() - rejectedBefore);
+        if (webhook) {
+            System.out.printf("Webhook: %,d notifications spooled, %,d requests received by the endpoint, "
+                            + "queue depth %,d at the end (max %,d), %,d rate limited, %,d failed, %,d dropped%n",
+                    webhookManager.getQueuedCount() - queuedBefore, webhookRequests.sum() - requestsBefore,
+                    webhookManager.getQueueDepth(), maxQueueDepth, webhookManager.getRateLimitedCount(),
+                    webhookManager.getFailedCount(), webhookManager.getDroppedCount());
+        }
+
+        plugin.onProxyShutdown(new ProxyShutdownEvent());
+        scheduler.shutdownNow();
+        if (webhookServer != null) {
+            webhookServer.stop(0);
+        }
+        BenchmarkEnvironment.delete(dataDirectory);
+    }
+
+    private void drive(NoBypass plugin, LoginValidationBenchmark.Attempt[] attempts, Traffic traffic, long intervalNanos,
+                       CountDownLatch stopped) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean measured = false;
+        long allocatedAtStart = 0;
+        long generatorAllocated = 0;
+        long next = System.nanoTime();
+        for (int i = 0; running; i++) {
+            if (intervalNanos > 0) {
+                next += intervalNanos;
+                long wait;
+                while ((wait = next - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long scheduled = intervalNanos > 0 ? next : System.nanoTime();
+
+            int slot = i % attempts.length;
+            attempts[slot].run(plugin);
+
+            if (measuring) {
+                if (!measured) {
+                    measured = true;
+                    allocatedAtStart = threadBean.getCurrentThreadAllocatedBytes();
+                }
+                latency.record(System.nanoTime() - scheduled);
+                logins.increment();
+            } else if (measurementOver) {
+                break;
+            }
+
+            // Replace the login with a fresh one for the next pass over the pool
+            long allocatedBefore = measured ? threadBean.getCurrentThreadAllocatedBytes() : 0;
+            attempts[slot] = traffic.next();
+            if (measured) {
+                generatorAllocated += threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            }
+        }
+        if (measured) {
+            loginAllocatedBytes.add(threadBean.getCurrentThreadAllocatedBytes() - allocatedAtStart - generatorAllocated);
+            generatorAllocatedBytes.add(generatorAllocated);
+        }
+        stopped.countDown();
+        // Stay alive until the process allocation is sampled, the bytes of exited threads are not counted
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    /**
+     * Generates the logins of one thread with the configured traffic mix.
+     */
+    private final class Traffic {
+
+        private final SplittableRandom random;
+        private final int thread;
+        private final int threads;
+        private final int domains;
+        private final int reserved;
+        private final int wrongDomain;
+        private final int uuidMismatch;
+        private final int repeat;
+        private final int deniedAddress;
+        private long sequence;
+
+        private Traffic(int thread, int threads, int domains, int reserved) {
+            this.random = new SplittableRandom(thread * 31L + 7);
+            this.thread = thread;
+            this.threads = threads;
+            this.domains = domains;
+            this.reserved = reserved;
+            this.wrongDomain = option("wrong-domain", 10);
+            this.uuidMismatch = wrongDomain + option("uuid-mismatch", 5);
+            this.repeat = uuidMismatch + option("repeat", 10);
+            this.deniedAddress = repeat + option("denied-address", 0);
+        }
+
+        private LoginValidationBenchmark.Attempt next() {
+            long index = sequence++ * threads + thread;
+            String address = "10." + (index >> 16 & 0xff) + "." + (index >> 8 & 0xff) + "." + (index & 0xff);
+            String domain = BenchmarkEnvironment.allowedDomain(random.nextInt(domains));
+            String username = "Player" + index;
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+
+            int roll = random.nextInt(100);
+            if (roll < wrongDomain) {
+                domain = "leaked" + index + ".bypass.example.org";
+            } else if (roll < uuidMismatch) {
+                username = BenchmarkEnvironment.reservedUsername(random.nextInt(reserved));
+            } else if (roll < repeat) {
+                // The same few bots retry the same blocked connection over and over
+                int bot = random.nextInt(REPEAT_OFFENDERS);
+                address = "198.51.100." + bot;
+                domain = "leaked.bypass.example.org";
+                username = "Bot" + bot;
+            } else if (roll < deniedAddress) {
+                address = "203.0.113." + (index & 0xff);
+            } else if (random.nextInt(10) == 0) {
+                // Some legitimate logins belong to reserved accounts
+                int account = random.nextInt(reserved);
+                username = BenchmarkEnvironment.reservedUsername(account);
+                uuid = BenchmarkEnvironment.reservedUUID(account);
+            }
+
+            InetSocketAddress remoteAddress = new InetSocketAddress(address, 40000);
+            Player player = Stubs.player(username, uuid, remoteAddress, domain, false);
+            return new LoginValidationBenchmark.Attempt(
+                    new PreLoginEvent(Stubs.connection(remoteAddress, domain), username, uuid),
+                    new LoginEvent(player));
+        }
+    }
+
+    private HttpServer startWebhookServer(int status, int delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/webhook", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.readAllBytes();
+            }
+            webhookRequests.increment();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (status == 429) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    // Threads that exit during the measurement are not counted
+    private static long processAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%,.1f us", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,143 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.otakusweeett.nobypass.NoBypass;
+import com.velocitypowered.api.event.EventTask;
+import com.velocitypowered.api.event.ResultedEvent;
+import com.velocitypowered.api.event.connection.LoginEvent;
+import com.velocitypowered.api.event.connection.PreLoginEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives NoBypass.onPreLogin and NoBypass.onPlayerLogin end to end with stub connections.
+ * Run with "-prof gc" to report the allocation rate per login.
+ * <p>
+ * The attempts are replayed, so with the denial cache enabled every denial after the first pass
+ * is a cache hit. Run with denialCache=false to measure denials that take the full path, as the
+ * fresh connections of a botnet do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LoginValidationBenchmark {
+
+    private static final int ATTEMPTS = 4096;
+
+    @Param({"10", "1000", "100000"})
+    public int reservedUUIDs;
+
+    @Param({"1", "50", "500"})
+    public int domains;
+
+    @Param({"0", "10", "100"})
+    public int denyPercent;
+
+    @Param({"true", "false"})
+    public boolean denialCache;
+
+    private Path dataDirectory;
+    private NoBypass plugin;
+    private Attempt[] attempts;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataDirectory = BenchmarkEnvironment.createDataDirectory(domains, reservedUUIDs,
+                "throttle:\n  enabled: false\nwebhook:\n  enabled: false\ndenial-cache:\n  enabled: " + denialCache + "\n");
+        plugin = BenchmarkEnvironment.createPlugin(dataDirectory, Stubs.proxyServer(List.of()));
+
+        SplittableRandom random = new SplittableRandom(42);
+        attempts = new Attempt[ATTEMPTS];
+        for (int i = 0; i < ATTEMPTS; i++) {
+            attempts[i] = Attempt.generate(random, i, reservedUUIDs, domains, denyPercent);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plugin.onProxyShutdown(new ProxyShutdownEvent());
+        BenchmarkEnvironment.delete(dataDirectory);
+    }
+
+    @Benchmark
+    public ResultedEvent.Result login() {
+        Attempt attempt = attempts[cursor++ & (ATTEMPTS - 1)];
+        return attempt.run(plugin);
+    }
+
+    static final class Attempt {
+
+        private final PreLoginEvent preLoginEvent;
+        private final LoginEvent loginEvent;
+
+        Attempt(PreLoginEvent preLoginEvent, LoginEvent loginEvent) {
+            this.preLoginEvent = preLoginEvent;
+            this.loginEvent = loginEvent;
+        }
+
+        static Attempt generate(SplittableRandom random, int index, int reservedUUIDs, int domains, int denyPercent) {
+            InetSocketAddress address = new InetSocketAddress("10." + (index >> 8 & 0xff) + "." + (index & 0xff) + ".1", 40000);
+            // Every fourth domain is matched through a wildcard rule
+            String domain = BenchmarkEnvironment.allowedDomain(random.nextInt(domains));
+            String username = "Player" + index;
+            UUID uuid = UUID.randomUUID();
+
+            if (random.nextInt(100) < denyPercent) {
+                if (random.nextBoolean()) {
+                    domain = "leaked" + index + ".bypass.example.org";
+                } else {
+                    username = BenchmarkEnvironment.reservedUsername(random.nextInt(reservedUUIDs));
+                }
+            } else if (random.nextInt(10) == 0) {
+                // Some legitimate logins belong to reserved accounts
+                int reserved = random.nextInt(reservedUUIDs);
+                username = BenchmarkEnvironment.reservedUsername(reserved);
+                uuid = BenchmarkEnvironment.reservedUUID(reserved);
+            }
+
+            Player player = Stubs.player(username, uuid, address, domain, false);
+            return new Attempt(
+                    new PreLoginEvent(Stubs.connection(address, domain), username, uuid),
+                    new LoginEvent(player)
+            );
+        }
+
+        ResultedEvent.Result run(NoBypass plugin) {
+            preLoginEvent.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
+            plugin.onPreLogin(preLoginEvent);
+            if (!preLoginEvent.getResult().isAllowed()) {
+                return preLoginEvent.getResult();
+            }
+
+            loginEvent.setResult(ResultedEvent.ComponentResult.allowed());
+            EventTask task = plugin.onPlayerLogin(loginEvent);
+            if (task != null) {
+                task.execute(Stubs.CONTINUATION);
+            }
+            return loginEvent.getResult();
+        }
+    }
+}
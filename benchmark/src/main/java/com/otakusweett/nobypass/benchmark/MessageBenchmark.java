@@ -0,0 +1,54 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.otakusweeett.nobypass.MessageManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+    private Path dataDirectory;
+    private MessageManager messageManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataDirectory = BenchmarkEnvironment.createDataDirectory(1, 0);
+        messageManager = new MessageManager(dataDirectory, "en");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.delete(dataDirectory);
+    }
+
+    @Benchmark
+    public String reason() {
+        return messageManager.getMessage("reason-invalid-domain");
+    }
+
+    @Benchmark
+    public String alert() {
+        return messageManager.getMessage("alert-message",
+                "username", "Player123",
+                "domain", "leaked.bypass.example.org",
+                "reason", "Invalid domain.");
+    }
+}
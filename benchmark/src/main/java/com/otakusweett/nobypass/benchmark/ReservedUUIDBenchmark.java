@@ -0,0 +1,91 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.otakusweeett.nobypass.ReservedUUIDManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reserved UUID lookups. Run with "-prof gc": gc.alloc.rate.norm should stay at zero
+ * bytes per operation for all three cases, which {@link AllocationCheck} also verifies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReservedUUIDBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    @Param({"10", "1000", "100000"})
+    public int reservedUUIDs;
+
+    private Path dataDirectory;
+    private ReservedUUIDManager manager;
+    private String[] reservedNames;
+    private UUID[] reservedIds;
+    private String[] otherNames;
+    private UUID[] otherIds;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataDirectory = BenchmarkEnvironment.createDataDirectory(1, reservedUUIDs);
+        manager = new ReservedUUIDManager(Map.of(), dataDirectory.resolve("reserved.txt"));
+
+        SplittableRandom random = new SplittableRandom(42);
+        reservedNames = new String[SAMPLES];
+        reservedIds = new UUID[SAMPLES];
+        otherNames = new String[SAMPLES];
+        otherIds = new UUID[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            int reserved = random.nextInt(reservedUUIDs);
+            // Usernames arrive in whatever case the client sent
+            reservedNames[i] = BenchmarkEnvironment.reservedUsername(reserved).toUpperCase();
+            reservedIds[i] = BenchmarkEnvironment.reservedUUID(reserved);
+            otherNames[i] = "Player" + i;
+            otherIds[i] = UUID.randomUUID();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.delete(dataDirectory);
+    }
+
+    @Benchmark
+    public boolean reservedMatch() {
+        int i = cursor++ & (SAMPLES - 1);
+        return manager.isUUIDReserved(reservedNames[i], reservedIds[i]);
+    }
+
+    @Benchmark
+    public boolean reservedMismatch() {
+        int i = cursor++ & (SAMPLES - 1);
+        return manager.isUUIDReserved(reservedNames[i], otherIds[i]);
+    }
+
+    @Benchmark
+    public boolean unreserved() {
+        int i = cursor++ & (SAMPLES - 1);
+        return manager.isUUIDReserved(otherNames[i], otherIds[i]);
+    }
+}
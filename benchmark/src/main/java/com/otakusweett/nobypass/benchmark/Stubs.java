@@ -0,0 +1,172 @@
+package com.otakusweeett.nobypass.benchmark;
+
+import com.velocitypowered.api.command.CommandManager;
+import com.velocitypowered.api.command.CommandMeta;
+import com.velocitypowered.api.event.Continuation;
+import com.velocitypowered.api.proxy.InboundConnection;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import com.velocitypowered.api.scheduler.Scheduler;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Minimal Velocity API stand-ins built with dynamic proxies. Methods without an explicit
+ * answer return null, false, zero or an empty Optional; an {@link Answer} computes the result
+ * from the call arguments.
+ */
+final class Stubs {
+
+    // Answer that makes a method return the stub itself, for fluent builders
+    private static final Object SELF = new Object();
+
+    static final Continuation CONTINUATION = new Continuation() {
+        @Override
+        public void resume() {
+        }
+
+        @Override
+        public void resumeWithException(Throwable exception) {
+            throw new IllegalStateException(exception);
+        }
+    };
+
+    private Stubs() {
+    }
+
+    /**
+     * Computes the result of a stubbed method from the stub and the call arguments.
+     */
+    @FunctionalInterface
+    interface Answer {
+
+        Object answer(Object stub, Object[] args);
+    }
+
+    static Player player(String username, UUID uuid, InetSocketAddress remoteAddress, String virtualHost, boolean notify) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getUsername", username);
+        answers.put("getUniqueId", uuid);
+        answers.put("getRemoteAddress", remoteAddress);
+        answers.put("getVirtualHost", Optional.ofNullable(virtualHost).map(host -> InetSocketAddress.createUnresolved(host, 25565)));
+        answers.put("hasPermission", notify);
+        answers.put("isActive", true);
+        return stub(Player.class, answers);
+    }
+
+    static Player notifyRecipient(String username, InetSocketAddress remoteAddress, LongAdder receivedMessages) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getUsername", username);
+        answers.put("getUniqueId", UUID.nameUUIDFromBytes(username.getBytes()));
+        answers.put("getRemoteAddress", remoteAddress);
+        answers.put("hasPermission", true);
+        answers.put("isActive", true);
+        answers.put("sendMessage", (Answer) (stub, args) -> {
+            receivedMessages.increment();
+            return null;
+        });
+        return stub(Player.class, answers);
+    }
+
+    static InboundConnection connection(InetSocketAddress remoteAddress, String virtualHost) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getRemoteAddress", remoteAddress);
+        answers.put("getVirtualHost", Optional.ofNullable(virtualHost).map(host -> InetSocketAddress.createUnresolved(host, 25565)));
+        answers.put("isActive", true);
+        return stub(InboundConnection.class, answers);
+    }
+
+    static ProxyServer proxyServer(Collection<Player> onlinePlayers) {
+        // Scheduled tasks never run; benchmarks measure the login path, not the periodic flushers
+        Scheduler.TaskBuilder taskBuilder = stub(Scheduler.TaskBuilder.class, Map.of("delay", SELF, "repeat", SELF));
+
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getAllPlayers", onlinePlayers);
+        answers.put("getScheduler", stub(Scheduler.class, Map.of("buildTask", taskBuilder)));
+        return stub(ProxyServer.class, answers);
+    }
+
+    static ProxyServer proxyServer(Collection<Player> onlinePlayers, ScheduledExecutorService executor) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getAllPlayers", onlinePlayers);
+        answers.put("getScheduler", stub(Scheduler.class, Map.of("buildTask", (Answer) (scheduler, args) -> taskBuilder(executor, args[1]))));
+        return stub(ProxyServer.class, answers);
+    }
+
+    // Scheduled tasks run on the executor, so the alert flusher and cache eviction behave as on a proxy
+    @SuppressWarnings("unchecked")
+    private static Scheduler.TaskBuilder taskBuilder(ScheduledExecutorService executor, Object task) {
+        Runnable runnable = task instanceof Runnable ? (Runnable) task : () -> ((Consumer<ScheduledTask>) task).accept(null);
+        long[] delayAndRepeat = new long[2];
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("delay", (Answer) (builder, args) -> {
+            delayAndRepeat[0] = toNanos(args);
+            return builder;
+        });
+        answers.put("repeat", (Answer) (builder, args) -> {
+            delayAndRepeat[1] = toNanos(args);
+            return builder;
+        });
+        answers.put("schedule", (Answer) (builder, args) -> {
+            ScheduledFuture<?> future = delayAndRepeat[1] > 0
+                    ? executor.scheduleAtFixedRate(runnable, delayAndRepeat[0], delayAndRepeat[1], TimeUnit.NANOSECONDS)
+                    : executor.schedule(runnable, delayAndRepeat[0], TimeUnit.NANOSECONDS);
+            return stub(ScheduledTask.class, Map.of("cancel", (Answer) (scheduledTask, cancelArgs) -> future.cancel(false)));
+        });
+        return stub(Scheduler.TaskBuilder.class, answers);
+    }
+
+    private static long toNanos(Object[] args) {
+        return args.length == 1 ? ((Duration) args[0]).toNanos() : ((TimeUnit) args[1]).toNanos((Long) args[0]);
+    }
+
+    static CommandManager commandManager() {
+        CommandMeta.Builder metaBuilder = stub(CommandMeta.Builder.class,
+                Map.of("aliases", SELF, "build", stub(CommandMeta.class, Map.of())));
+        return stub(CommandManager.class, Map.of("metaBuilder", metaBuilder));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + answers.getOrDefault("getUsername", "");
+                default:
+                    break;
+            }
+            if (answers.containsKey(method.getName())) {
+                Object answer = answers.get(method.getName());
+                if (answer instanceof Answer computed) {
+                    return computed.answer(proxy, args);
+                }
+                return answer == SELF ? proxy : answer;
+            }
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType.isPrimitive() && returnType != void.class) {
+                return returnType == long.class ? 0L : returnType == double.class ? 0.0 : returnType == float.class ? 0.0f : 0;
+            }
+            return returnType == Optional.class ? Optional.empty() : null;
+        });
+    }
+}
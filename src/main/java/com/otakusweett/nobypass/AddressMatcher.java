@@ -0,0 +1,454 @@
+package com.otakusweeett.nobypass;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Matches addresses against allowed and denied CIDR ranges using a path-compressed binary radix
+ * trie over 128-bit addresses, with IPv4 stored as IPv4-mapped IPv6. Nodes live in parallel
+ * arrays, so a lookup walks at most one node per branching bit. IPv4 lookups allocate nothing;
+ * IPv6 lookups copy the 16 address bytes, since {@link java.net.Inet6Address} exposes no other way
+ * to read them.
+ * <p>
+ * The most specific matching range decides: an allowed range inside a denied one is an exception
+ * to it, and a denied range inside an allowed one still blocks.
+ */
+public final class AddressMatcher {
+
+    static final byte NONE = 0;
+    static final byte ALLOW = 1;
+    static final byte DENY = 2;
+
+    private static final long IPV4_MAPPED = 0x0000FFFF00000000L;
+
+    private long[] high;
+    private long[] low;
+    private byte[] lengths;
+    private byte[] actions;
+    private int[] zero;
+    private int[] one;
+    private int nodeCount;
+    private int size;
+
+    private AddressMatcher(int capacity) {
+        high = new long[capacity];
+        low = new long[capacity];
+        lengths = new byte[capacity];
+        actions = new byte[capacity];
+        zero = new int[capacity];
+        one = new int[capacity];
+        newNode(0, 0, 0, NONE);
+    }
+
+    private AddressMatcher(long[] high, long[] low, byte[] lengths, byte[] actions, int[] zero, int[] one, int size) {
+        this.high = high;
+        this.low = low;
+        this.lengths = lengths;
+        this.actions = actions;
+        this.zero = zero;
+        this.one = one;
+        this.nodeCount = high.length;
+        this.size = size;
+    }
+
+    /**
+     * Creates an empty matcher that lets every address through.
+     *
+     * @return The matcher.
+     */
+    public static AddressMatcher empty() {
+        return new AddressMatcher(1);
+    }
+
+    /**
+     * Builds a matcher from allowed and denied ranges.
+     *
+     * @param allowed The allowed ranges, in CIDR notation or as single addresses.
+     * @param denied  The denied ranges, in CIDR notation or as single addresses.
+     * @return The matcher.
+     * @throws IllegalArgumentException If a range cannot be parsed.
+     */
+    public static AddressMatcher compile(Iterable<String> allowed, Iterable<String> denied) {
+        AddressMatcher matcher = new AddressMatcher(64);
+        for (String range : denied) {
+            matcher.add(range, DENY);
+        }
+        for (String range : allowed) {
+            matcher.add(range, ALLOW);
+        }
+        return matcher;
+    }
+
+    /**
+     * Rebuilds a matcher from the node arrays of another matcher, as stored in a policy snapshot.
+     *
+     * @return The matcher.
+     * @throws IllegalArgumentException If the arrays do not form a valid trie.
+     */
+    static AddressMatcher fromTables(long[] high, long[] low, byte[] lengths, byte[] actions, int[] zero, int[] one, int size) {
+        int nodes = high.length;
+        if (nodes == 0 || low.length != nodes || lengths.length != nodes || actions.length != nodes
+                || zero.length != nodes || one.length != nodes) {
+            throw new IllegalArgumentException("Invalid address trie with " + nodes + " nodes");
+        }
+        for (int i = 0; i < nodes; i++) {
+            // Prefixes get strictly longer towards the leaves, so lookups cannot loop
+            if ((lengths[i] & 0xFF) > 128 || !isValidChild(i, zero[i], lengths, nodes) || !isValidChild(i, one[i], lengths, nodes)) {
+                throw new IllegalArgumentException("Invalid address trie node " + i);
+            }
+        }
+        return new AddressMatcher(high, low, lengths, actions, zero, one, size);
+    }
+
+    private static boolean isValidChild(int parent, int child, byte[] lengths, int nodes) {
+        return child == -1 || (child > 0 && child < nodes && (lengths[child] & 0xFF) > (lengths[parent] & 0xFF));
+    }
+
+    private void add(String range, byte action) {
+        if (range == null || range.isBlank()) {
+            return;
+        }
+        range = range.trim();
+        int slash = range.indexOf('/');
+        String literal = slash < 0 ? range : range.substring(0, slash);
+
+        InetAddress address = parseLiteral(literal);
+        if (address == null) {
+            throw new IllegalArgumentException("Invalid address range: " + range);
+        }
+
+        boolean ipv4 = address instanceof Inet4Address;
+        int maxLength = ipv4 ? 32 : 128;
+        int length = maxLength;
+        if (slash >= 0) {
+            try {
+                length = Integer.parseInt(range.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length: " + range);
+            }
+            if (length < 0 || length > maxLength) {
+                throw new IllegalArgumentException("Invalid prefix length: " + range);
+            }
+        }
+
+        byte[] bytes = address.getAddress();
+        long addressHigh;
+        long addressLow;
+        if (ipv4) {
+            addressHigh = 0;
+            addressLow = IPV4_MAPPED | toInt(bytes) & 0xFFFFFFFFL;
+            length += 96;
+        } else {
+            addressHigh = toLong(bytes, 0);
+            addressLow = toLong(bytes, 8);
+        }
+        insert(maskHigh(addressHigh, length), maskLow(addressLow, length), length, action);
+        size++;
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address literal. Unlike {@link InetAddress#getByName(String)}, this
+     * never resolves a host name, so anything that is not strictly a literal is rejected.
+     *
+     * @param text The text to parse, such as "192.0.2.1", "2001:db8::1" or "::ffff:192.0.2.1".
+     * @return The address, or null if the text is not an address literal.
+     */
+    public static InetAddress parseLiteral(String text) {
+        byte[] bytes = text.indexOf(':') >= 0 ? parseIPv6(text) : parseIPv4(text);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return null; // Only thrown for a wrong number of bytes
+        }
+    }
+
+    private static byte[] parseIPv4(String text) {
+        byte[] bytes = new byte[4];
+        int part = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i == text.length() ? '.' : text.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || part == 4) {
+                    return null;
+                }
+                bytes[part++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return part == 4 ? bytes : null;
+    }
+
+    private static byte[] parseIPv6(String text) {
+        // At most one "::", standing for one or more groups of zeros
+        int gap = text.indexOf("::");
+        if (gap >= 0 && text.indexOf("::", gap + 1) >= 0) {
+            return null;
+        }
+        byte[] head = parseGroups(gap < 0 ? text : text.substring(0, gap), gap < 0);
+        byte[] tail = gap < 0 ? new byte[0] : parseGroups(text.substring(gap + 2), true);
+        if (head == null || tail == null) {
+            return null;
+        }
+        int length = head.length + tail.length;
+        if (gap < 0 ? length != 16 : length > 14) {
+            return null;
+        }
+        byte[] bytes = new byte[16];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        System.arraycopy(tail, 0, bytes, 16 - tail.length, tail.length);
+        return bytes;
+    }
+
+    /**
+     * Parses colon-separated groups of up to four hex digits, optionally ending with an embedded
+     * IPv4 address.
+     */
+    private static byte[] parseGroups(String text, boolean mayEndWithIPv4) {
+        if (text.isEmpty()) {
+            return new byte[0];
+        }
+        String[] groups = text.split(":", -1);
+        if (groups.length > 8) {
+            return null;
+        }
+        byte[] bytes = new byte[groups.length * 4];
+        int length = 0;
+        for (int i = 0; i < groups.length; i++) {
+            String group = groups[i];
+            if (mayEndWithIPv4 && i == groups.length - 1 && group.indexOf('.') >= 0) {
+                byte[] ipv4 = parseIPv4(group);
+                if (ipv4 == null) {
+                    return null;
+                }
+                System.arraycopy(ipv4, 0, bytes, length, 4);
+                length += 4;
+                continue;
+            }
+            if (group.isEmpty() || group.length() > 4) {
+                return null;
+            }
+            int value = 0;
+            for (int j = 0; j < group.length(); j++) {
+                char c = group.charAt(j);
+                int digit = c >= '0' && c <= '9' ? c - '0'
+                        : c >= 'a' && c <= 'f' ? c - 'a' + 10
+                        : c >= 'A' && c <= 'F' ? c - 'A' + 10
+                        : -1;
+                if (digit < 0) {
+                    return null;
+                }
+                value = value << 4 | digit;
+            }
+            bytes[length++] = (byte) (value >> 8);
+            bytes[length++] = (byte) value;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private void insert(long prefixHigh, long prefixLow, int length, byte action) {
+        int node = 0;
+        while (true) {
+            int nodeLength = lengths[node] & 0xFF;
+            if (nodeLength == length) {
+                actions[node] = action;
+                return;
+            }
+
+            boolean bit = bitAt(prefixHigh, prefixLow, nodeLength);
+            int child = bit ? one[node] : zero[node];
+            if (child < 0) {
+                setChild(node, bit, newNode(prefixHigh, prefixLow, length, action));
+                return;
+            }
+
+            int childLength = lengths[child] & 0xFF;
+            int common = Math.min(commonPrefix(high[child], low[child], prefixHigh, prefixLow), Math.min(childLength, length));
+            if (common == childLength) {
+                node = child;
+                continue;
+            }
+
+            // The new range and the child diverge before the child's prefix ends: split the edge
+            int split = newNode(maskHigh(prefixHigh, common), maskLow(prefixLow, common), common, NONE);
+            setChild(node, bit, split);
+            setChild(split, bitAt(high[child], low[child], common), child);
+            if (common == length) {
+                actions[split] = action;
+            } else {
+                setChild(split, bitAt(prefixHigh, prefixLow, common), newNode(prefixHigh, prefixLow, length, action));
+            }
+            return;
+        }
+    }
+
+    /**
+     * Checks if an address is blocked by the denied ranges.
+     *
+     * @param address The address to check.
+     * @return True if the most specific matching range is a denied one.
+     */
+    public boolean isDenied(InetAddress address) {
+        if (size == 0 || address == null) {
+            return false;
+        }
+        if (address instanceof Inet4Address) {
+            // The hash code of an IPv4 address is its value, read without copying the address bytes
+            return lookup(0, IPV4_MAPPED | address.hashCode() & 0xFFFFFFFFL) == DENY;
+        }
+        // getAddress() returns a copy, the one allocation of an IPv6 lookup
+        byte[] bytes = address.getAddress();
+        return lookup(toLong(bytes, 0), toLong(bytes, 8)) == DENY;
+    }
+
+    /**
+     * Finds the action of the most specific range containing an address.
+     *
+     * @param addressHigh The upper 64 bits of the IPv6 or IPv4-mapped address.
+     * @param addressLow  The lower 64 bits of the address.
+     * @return The action, or {@link #NONE} if no range matches.
+     */
+    byte lookup(long addressHigh, long addressLow) {
+        byte result = NONE;
+        int node = 0;
+        while (node >= 0) {
+            int length = lengths[node] & 0xFF;
+            if (commonPrefix(high[node], low[node], addressHigh, addressLow) < length) {
+                break;
+            }
+            if (actions[node] != NONE) {
+                result = actions[node];
+            }
+            if (length == 128) {
+                break;
+            }
+            node = bitAt(addressHigh, addressLow, length) ? one[node] : zero[node];
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of ranges loaded.
+     *
+     * @return The range count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the approximate heap memory used by the trie.
+     *
+     * @return The size in bytes.
+     */
+    public long getMemoryFootprint() {
+        return (long) high.length * (Long.BYTES * 2 + 2 + Integer.BYTES * 2);
+    }
+
+    long[] getHighTable() {
+        return Arrays.copyOf(high, nodeCount);
+    }
+
+    long[] getLowTable() {
+        return Arrays.copyOf(low, nodeCount);
+    }
+
+    byte[] getLengthTable() {
+        return Arrays.copyOf(lengths, nodeCount);
+    }
+
+    byte[] getActionTable() {
+        return Arrays.copyOf(actions, nodeCount);
+    }
+
+    int[] getZeroTable() {
+        return Arrays.copyOf(zero, nodeCount);
+    }
+
+    int[] getOneTable() {
+        return Arrays.copyOf(one, nodeCount);
+    }
+
+    private int newNode(long prefixHigh, long prefixLow, int length, byte action) {
+        if (nodeCount == high.length) {
+            int capacity = high.length * 2;
+            high = Arrays.copyOf(high, capacity);
+            low = Arrays.copyOf(low, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+            zero = Arrays.copyOf(zero, capacity);
+            one = Arrays.copyOf(one, capacity);
+        }
+        int node = nodeCount++;
+        high[node] = prefixHigh;
+        low[node] = prefixLow;
+        lengths[node] = (byte) length;
+        actions[node] = action;
+        zero[node] = -1;
+        one[node] = -1;
+        return node;
+    }
+
+    private void setChild(int node, boolean bit, int child) {
+        if (bit) {
+            one[node] = child;
+        } else {
+            zero[node] = child;
+        }
+    }
+
+    private static boolean bitAt(long addressHigh, long addressLow, int index) {
+        return index < 64
+                ? (addressHigh >>> (63 - index) & 1) != 0
+                : (addressLow >>> (127 - index) & 1) != 0;
+    }
+
+    private static int commonPrefix(long aHigh, long aLow, long bHigh, long bLow) {
+        long differenceHigh = aHigh ^ bHigh;
+        if (differenceHigh != 0) {
+            return Long.numberOfLeadingZeros(differenceHigh);
+        }
+        return 64 + Long.numberOfLeadingZeros(aLow ^ bLow);
+    }
+
+    private static long maskHigh(long addressHigh, int length) {
+        if (length >= 64) {
+            return addressHigh;
+        }
+        return length == 0 ? 0 : addressHigh & (-1L << (64 - length));
+    }
+
+    private static long maskLow(long addressLow, int length) {
+        if (length <= 64) {
+            return 0;
+        }
+        return length == 128 ? addressLow : addressLow & (-1L << (128 - length));
+    }
+
+    private static int toInt(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | bytes[offset + i] & 0xFF;
+        }
+        return value;
+    }
+}
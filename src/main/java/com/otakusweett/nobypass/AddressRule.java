@@ -0,0 +1,42 @@
+package com.otakusweeett.nobypass;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * Refuses connections from a denied address range that no allowed range exempts.
+ */
+public class AddressRule implements Rule {
+
+    private final AddressMatcher addressRules;
+
+    public AddressRule(AddressMatcher addressRules) {
+        this.addressRules = addressRules;
+    }
+
+    @Override
+    public String getName() {
+        return "address";
+    }
+
+    @Override
+    public Scope getScope() {
+        return Scope.PRE_LOGIN;
+    }
+
+    @Override
+    public int getCost() {
+        // A short walk down the range trie; free when no ranges are configured
+        return addressRules.size() == 0 ? 0 : 3;
+    }
+
+    @Override
+    public BlockReason getBlockReason() {
+        return BlockReason.DENIED_ADDRESS;
+    }
+
+    @Override
+    public boolean denies(String username, UUID uuid, String domain, InetAddress address) {
+        return addressRules.isDenied(address);
+    }
+}
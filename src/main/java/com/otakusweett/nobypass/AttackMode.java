@@ -0,0 +1,184 @@
+package com.otakusweeett.nobypass;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects surges of denials with a sliding window of per-second counters and switches into
+ * attack mode, where denials take the cheapest path: one pre-built kick and no per-denial
+ * alerts, log lines or webhooks. Attack mode ends once the rate has stayed below the exit
+ * threshold for the cooldown, so a wave that pauses for a few seconds does not flap in and out.
+ */
+public class AttackMode {
+
+    /**
+     * A change of state reported by {@link #update(Policy)}.
+     */
+    public enum Transition {
+        STARTED,
+        ENDED
+    }
+
+    // Longest supported window; counters are kept for this many seconds
+    static final int MAX_WINDOW_SECONDS = 60;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_WINDOW_SECONDS);
+    private final AtomicLongArray seconds = new AtomicLongArray(MAX_WINDOW_SECONDS);
+    private final LongAdder attackDenials = new LongAdder();
+    private final LongAdder summaryDenials = new LongAdder();
+    private final LongAdder attacks = new LongAdder();
+
+    private volatile boolean active;
+    private long startedAt;
+    private long endedAt;
+    private long calmSince;
+    private boolean calm;
+    private long lastSummary;
+
+    public AttackMode() {
+        for (int i = 0; i < MAX_WINDOW_SECONDS; i++) {
+            seconds.set(i, -1);
+        }
+    }
+
+    /**
+     * Counts a denial in the sliding window.
+     */
+    public void record() {
+        long second = currentSecond();
+        int index = (int) Math.floorMod(second, (long) MAX_WINDOW_SECONDS);
+        long stamp = seconds.get(index);
+        boolean counted = false;
+        if (stamp != second) {
+            long stale = counts.get(index);
+            if (seconds.compareAndSet(index, stamp, second)) {
+                // First denial of a new second reuses the slot of the second a minute ago. Subtract
+                // the old count rather than overwrite it, keeping the denials other threads counted
+                // for the new second since the stamp changed
+                counts.addAndGet(index, 1 - stale);
+                counted = true;
+            }
+        }
+        if (!counted) {
+            counts.incrementAndGet(index);
+        }
+        if (active) {
+            attackDenials.increment();
+            summaryDenials.increment();
+        }
+    }
+
+    /**
+     * Gets the average denial rate over the last complete seconds.
+     *
+     * @param windowSeconds The length of the window.
+     * @return The denials per second.
+     */
+    public double getRate(int windowSeconds) {
+        int window = Math.max(1, Math.min(windowSeconds, MAX_WINDOW_SECONDS - 1));
+        long now = currentSecond();
+        long total = 0;
+        for (long second = now - window; second < now; second++) {
+            int index = (int) Math.floorMod(second, (long) MAX_WINDOW_SECONDS);
+            if (seconds.get(index) == second) {
+                total += counts.get(index);
+            }
+        }
+        return (double) total / window;
+    }
+
+    /**
+     * Re-evaluates the denial rate against the thresholds of the policy. Called once a second.
+     *
+     * @param policy The current policy, holding the attack mode settings.
+     * @return The transition that happened, or null if the state did not change.
+     */
+    public synchronized Transition update(Policy policy) {
+        long now = System.nanoTime();
+        if (!policy.isAttackModeEnabled()) {
+            return active ? end() : null;
+        }
+
+        double rate = getRate(policy.getAttackWindowSeconds());
+        if (!active) {
+            if (rate < policy.getAttackEnterRate()) {
+                return null;
+            }
+            active = true;
+            calm = false;
+            startedAt = now;
+            lastSummary = now;
+            attackDenials.reset();
+            summaryDenials.reset();
+            attacks.increment();
+            return Transition.STARTED;
+        }
+
+        if (rate >= policy.getAttackExitRate()) {
+            calm = false;
+            return null;
+        }
+        if (!calm) {
+            calm = true;
+            calmSince = now;
+        }
+        return now - calmSince >= TimeUnit.SECONDS.toNanos(policy.getAttackCooldownSeconds()) ? end() : null;
+    }
+
+    private Transition end() {
+        active = false;
+        endedAt = System.nanoTime();
+        return Transition.ENDED;
+    }
+
+    /**
+     * Takes the number of denials since the previous summary, if a summary is due.
+     *
+     * @param intervalSeconds The time between summaries.
+     * @return The denial count, or -1 if attack mode is off or the interval has not passed yet.
+     */
+    public synchronized long takeSummary(int intervalSeconds) {
+        long now = System.nanoTime();
+        if (!active || now - lastSummary < TimeUnit.SECONDS.toNanos(intervalSeconds)) {
+            return -1;
+        }
+        lastSummary = now;
+        return summaryDenials.sumThenReset();
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Gets the number of denials since the current or last attack started.
+     *
+     * @return The denial count.
+     */
+    public long getAttackDenials() {
+        return attackDenials.sum();
+    }
+
+    /**
+     * Gets how long the current or last attack lasted.
+     *
+     * @return The duration in seconds.
+     */
+    public synchronized long getAttackSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds((active ? System.nanoTime() : endedAt) - startedAt);
+    }
+
+    /**
+     * Gets the number of times attack mode was entered since startup.
+     *
+     * @return The attack count.
+     */
+    public long getAttackCount() {
+        return attacks.sum();
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
@@ -0,0 +1,343 @@
+package com.otakusweeett.nobypass;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of blocked connections, stored as fixed-size records in memory-mapped
+ * segment files. Segments rotate when full or after an hour, and old segments are deleted.
+ * <p>
+ * Each segment has its own dictionary of the domains its records use, deleted together with
+ * the segment. Attackers choose those domains, so a shared dictionary would fill up for good
+ * after one wave of random hostnames; a per-segment one never holds more entries than records.
+ */
+public class BlockJournal {
+
+    // timestamp(8) address(16) domain id(4) reason(1) username length(1) username(16) padding(2)
+    private static final int RECORD_SIZE = 48;
+    private static final int SEGMENT_RECORDS = 65536;
+    private static final long SEGMENT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final int MAX_SEGMENTS = 64;
+    private static final int MAX_USERNAME_LENGTH = 16;
+    private static final String SEGMENT_PREFIX = "blocks-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final String DICTIONARY_SUFFIX = ".domains";
+
+    private final Path directory;
+    private final Logger logger;
+    // Dictionary of the current segment, guarded by this
+    private final Map<String, Integer> domainIds = new HashMap<>();
+
+    private BufferedWriter domainWriter;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private int position;
+    private boolean enabled = true;
+
+    public BlockJournal(Path directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+        try {
+            Files.createDirectories(directory);
+            openLatestSegment();
+        } catch (IOException e) {
+            logger.error("Unable to open the block journal in {}. Blocked connections will not be recorded.", directory, e);
+            enabled = false;
+        }
+    }
+
+    /**
+     * Appends a blocked connection to the journal.
+     *
+     * @param timestamp The time of the block in milliseconds.
+     * @param address   The source address.
+     * @param username  The username used.
+     * @param domain    The virtual host used, or null if unknown.
+     * @param reason    The reason for the block.
+     */
+    public synchronized void append(long timestamp, InetAddress address, String username, String domain, BlockReason reason) {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            if (position >= SEGMENT_RECORDS || timestamp - segmentStart >= SEGMENT_MAX_AGE_MILLIS) {
+                rotate(timestamp);
+            }
+
+            int offset = position * RECORD_SIZE;
+            segment.put(offset + 8, toBytes(address));
+            segment.putInt(offset + 24, domainId(domain));
+            segment.put(offset + 28, (byte) reason.getCode());
+            byte[] name = username.getBytes(StandardCharsets.US_ASCII);
+            int length = Math.min(name.length, MAX_USERNAME_LENGTH);
+            segment.put(offset + 29, (byte) length);
+            segment.put(offset + 30, name, 0, length);
+            // The timestamp goes last: readers treat a non-zero timestamp as a complete record
+            segment.putLong(offset, timestamp);
+            position++;
+        } catch (IOException e) {
+            logger.error("Unable to write to the block journal. Blocked connections will no longer be recorded.", e);
+            enabled = false;
+        }
+    }
+
+    /**
+     * Finds the most recent blocks matching an address or a domain.
+     *
+     * @param address The source address to match, or null to match any address.
+     * @param domain  The lowercased domain to match, or null to match any domain.
+     * @param since   The oldest timestamp to include, in milliseconds.
+     * @param limit   The maximum number of entries to return.
+     * @return The matching entries, newest first.
+     * @throws IOException If a segment cannot be read.
+     */
+    public List<Entry> query(InetAddress address, String domain, long since, int limit) throws IOException {
+        byte[] wantedAddress = address == null ? null : toBytes(address);
+
+        List<Entry> entries = new ArrayList<>();
+        for (Path file : listSegments()) {
+            Path dictionary = dictionaryFile(file);
+            List<String> domains = Files.exists(dictionary) ? Files.readAllLines(dictionary, StandardCharsets.UTF_8) : List.of();
+            // A domain missing from the dictionary means no record of this segment used it
+            int wantedDomain = domain == null ? -1 : domains.indexOf(domain);
+            if (domain == null || wantedDomain >= 0) {
+                if (scan(file, wantedAddress, domain != null, wantedDomain, domains, since, limit, entries)) {
+                    return entries;
+                }
+            }
+            // Older segments were rotated out before this one started, so all their records are older too
+            if (segmentStart(file) < since) {
+                break;
+            }
+        }
+        return entries;
+    }
+
+    // Adds the matching records of one segment to the entries, newest first; true once the limit is reached
+    private static boolean scan(Path file, byte[] wantedAddress, boolean matchDomain, int wantedDomain,
+                                List<String> domains, long since, int limit, List<Entry> entries) throws IOException {
+        byte[] recordAddress = new byte[16];
+        try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+            for (int record = countRecords(buffer) - 1; record >= 0; record--) {
+                int offset = record * RECORD_SIZE;
+                long timestamp = buffer.getLong(offset);
+                // Records come from several worker threads, so a few may be slightly out of order
+                if (timestamp < since) {
+                    continue;
+                }
+
+                buffer.get(offset + 8, recordAddress);
+                int domainId = buffer.getInt(offset + 24);
+                if (wantedAddress != null && !Arrays.equals(wantedAddress, recordAddress)) {
+                    continue;
+                }
+                if (matchDomain && domainId != wantedDomain) {
+                    continue;
+                }
+
+                byte[] name = new byte[Math.min(buffer.get(offset + 29), MAX_USERNAME_LENGTH)];
+                buffer.get(offset + 30, name);
+                entries.add(new Entry(
+                        timestamp,
+                        fromBytes(recordAddress),
+                        new String(name, StandardCharsets.US_ASCII),
+                        domainId >= 0 && domainId < domains.size() ? domains.get(domainId) : "unknown",
+                        BlockReason.fromCode(buffer.get(offset + 28))
+                ));
+                if (entries.size() >= limit) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Flushes and closes the current segment.
+     */
+    public synchronized void close() {
+        enabled = false;
+        try {
+            if (segment != null) {
+                segment.force();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            if (domainWriter != null) {
+                domainWriter.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to close the block journal cleanly.", e);
+        }
+    }
+
+    private void openLatestSegment() throws IOException {
+        List<Path> segments = listSegments();
+        long now = System.currentTimeMillis();
+        if (!segments.isEmpty()) {
+            Path latest = segments.get(0);
+            long start = segmentStart(latest);
+            if (now - start < SEGMENT_MAX_AGE_MILLIS) {
+                map(latest, start);
+                position = countRecords(segment);
+                if (position < SEGMENT_RECORDS) {
+                    return;
+                }
+            }
+        }
+        rotate(now);
+    }
+
+    private void rotate(long timestamp) throws IOException {
+        if (segment != null) {
+            segment.force();
+            channel.close();
+            domainWriter.close();
+        }
+        // Name the segment after the rotation itself, not the possibly older record that caused it,
+        // so every record of older segments is older than the start of this one
+        long start = Math.max(timestamp, System.currentTimeMillis());
+        map(directory.resolve(String.format("%s%013d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX)), start);
+        position = 0;
+        deleteExpiredSegments(timestamp);
+    }
+
+    private void map(Path file, long start) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_RECORDS * RECORD_SIZE);
+        segmentStart = start;
+
+        Path dictionary = dictionaryFile(file);
+        domainIds.clear();
+        if (Files.exists(dictionary)) {
+            for (String domain : Files.readAllLines(dictionary, StandardCharsets.UTF_8)) {
+                domainIds.put(domain, domainIds.size());
+            }
+        }
+        domainWriter = Files.newBufferedWriter(dictionary, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void deleteExpiredSegments(long now) throws IOException {
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            Path file = segments.get(i);
+            if (i >= MAX_SEGMENTS || now - segmentStart(file) > RETENTION_MILLIS) {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(dictionaryFile(file));
+            }
+        }
+    }
+
+    private static Path dictionaryFile(Path segmentFile) {
+        String name = segmentFile.getFileName().toString();
+        return segmentFile.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + DICTIONARY_SUFFIX);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        // Segment names embed a zero-padded start time, so name order is time order
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted(Comparator.comparing((Path path) -> path.getFileName().toString()).reversed())
+                    .toList();
+        }
+    }
+
+    private static long segmentStart(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static int countRecords(MappedByteBuffer buffer) {
+        // Records are written in order, so the first empty slot can be found by binary search
+        int low = 0;
+        int high = buffer.capacity() / RECORD_SIZE;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getLong(middle * RECORD_SIZE) != 0L) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int domainId(String domain) throws IOException {
+        if (domain == null || domain.length() > 255 || domain.indexOf('\n') >= 0 || domain.indexOf('\r') >= 0) {
+            return -1;
+        }
+        Integer id = domainIds.get(domain);
+        if (id != null) {
+            return id;
+        }
+
+        // The dictionary line must be on disk before a record refers to it
+        int newId = domainIds.size();
+        domainWriter.write(domain);
+        domainWriter.newLine();
+        domainWriter.flush();
+        domainIds.put(domain, newId);
+        return newId;
+    }
+
+    private static byte[] toBytes(InetAddress address) {
+        byte[] bytes = new byte[16];
+        if (address == null) {
+            return bytes;
+        }
+        byte[] raw = address.getAddress();
+        if (raw.length == 4) {
+            // IPv4-mapped IPv6 address
+            bytes[10] = (byte) 0xff;
+            bytes[11] = (byte) 0xff;
+            System.arraycopy(raw, 0, bytes, 12, 4);
+        } else {
+            System.arraycopy(raw, 0, bytes, 0, 16);
+        }
+        return bytes;
+    }
+
+    private static InetAddress fromBytes(byte[] bytes) {
+        try {
+            // getByAddress turns IPv4-mapped addresses back into Inet4Address
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    public record Entry(long timestamp, InetAddress address, String username, String domain, BlockReason reason) {
+    }
+}
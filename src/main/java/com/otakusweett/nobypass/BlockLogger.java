@@ -0,0 +1,186 @@
+package com.otakusweeett.nobypass;
+
+import org.slf4j.Logger;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs blocked connections without flooding the console during a bypass wave. Denials are
+ * logged one line each up to a per-second limit (or always in debug mode); the rest go into a
+ * lock-free queue that a periodic flush turns into a single summary line with the counts by
+ * reason and the top addresses and domains.
+ */
+public class BlockLogger {
+
+    private static final int TOP_ENTRIES = 5;
+    // Beyond this many queued denials per interval only the reason is counted
+    private static final int MAX_QUEUED = 100_000;
+
+    private final Logger logger;
+    private final ConcurrentLinkedQueue<Denial> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<BlockReason, LongAdder> overflow = new EnumMap<>(BlockReason.class);
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger linesThisSecond = new AtomicInteger();
+    private final LongAdder summarized = new LongAdder();
+    private long lastFlush = System.nanoTime();
+
+    public BlockLogger(Logger logger) {
+        this.logger = logger;
+        for (BlockReason reason : BlockReason.values()) {
+            overflow.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Logs a blocked connection, or queues it for the next summary if the per-second line limit
+     * was reached.
+     *
+     * @param policy      The current policy, holding the logging settings.
+     * @param blockReason The reason for blocking the connection.
+     * @param username    The username.
+     * @param uuid        The UUID, or null if it is not known yet.
+     * @param domain      The virtual host, or null.
+     * @param address     The source address.
+     * @param reason      The localized reason.
+     */
+    public void log(Policy policy, BlockReason blockReason, String username, UUID uuid,
+                    String domain, InetAddress address, String reason) {
+        if (policy.isDebugEnabled() || tryAcquireLine(policy.getLogLinesPerSecond())) {
+            logger.info("Connection blocked for player '{}' (UUID: {}) using '{}'. Reason: {}",
+                    username,
+                    uuid == null ? "unknown" : uuid,
+                    domain == null ? "unknown" : domain,
+                    reason
+            );
+            return;
+        }
+        count(blockReason, domain, address);
+    }
+
+    /**
+     * Counts a blocked connection towards the next summary without logging it individually.
+     *
+     * @param blockReason The reason for blocking the connection.
+     * @param domain      The virtual host, or null.
+     * @param address     The source address.
+     */
+    public void count(BlockReason blockReason, String domain, InetAddress address) {
+        if (queued.incrementAndGet() > MAX_QUEUED) {
+            queued.decrementAndGet();
+            overflow.get(blockReason).increment();
+            return;
+        }
+        queue.offer(new Denial(blockReason, address, domain));
+    }
+
+    private boolean tryAcquireLine(int linesPerSecond) {
+        if (linesPerSecond <= 0) {
+            return false;
+        }
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long previous = currentSecond.get();
+        if (previous != second && currentSecond.compareAndSet(previous, second)) {
+            linesThisSecond.set(0);
+        }
+        return linesThisSecond.incrementAndGet() <= linesPerSecond;
+    }
+
+    /**
+     * Logs a summary of the queued denials once the summary interval has passed. Called every
+     * second by the scheduler, so a changed interval applies without rescheduling.
+     *
+     * @param policy The current policy, holding the summary interval.
+     */
+    public synchronized void flush(Policy policy) {
+        long now = System.nanoTime();
+        long elapsed = now - lastFlush;
+        if (elapsed < TimeUnit.SECONDS.toNanos(policy.getLogSummaryIntervalSeconds())) {
+            return;
+        }
+        lastFlush = now;
+        summarize(elapsed);
+    }
+
+    /**
+     * Logs a summary of the queued denials right away, for shutdown.
+     */
+    public synchronized void flush() {
+        long now = System.nanoTime();
+        summarize(now - lastFlush);
+        lastFlush = now;
+    }
+
+    private void summarize(long elapsedNanos) {
+        Map<BlockReason, Long> byReason = new EnumMap<>(BlockReason.class);
+        Map<String, Integer> byAddress = new HashMap<>();
+        Map<String, Integer> byDomain = new HashMap<>();
+        long total = 0;
+
+        Denial denial;
+        while ((denial = queue.poll()) != null) {
+            queued.decrementAndGet();
+            total++;
+            byReason.merge(denial.reason(), 1L, Long::sum);
+            byAddress.merge(denial.address() == null ? "unknown" : denial.address().getHostAddress(), 1, Integer::sum);
+            byDomain.merge(denial.domain() == null ? "unknown" : denial.domain(), 1, Integer::sum);
+        }
+        for (Map.Entry<BlockReason, LongAdder> entry : overflow.entrySet()) {
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                total += count;
+                byReason.merge(entry.getKey(), count, Long::sum);
+            }
+        }
+        if (total == 0) {
+            return;
+        }
+        summarized.add(total);
+
+        StringBuilder reasons = new StringBuilder();
+        byReason.forEach((reason, count) -> {
+            if (reasons.length() > 0) {
+                reasons.append(", ");
+            }
+            reasons.append(reason.name().toLowerCase().replace('_', '-')).append('=').append(count);
+        });
+        logger.info("Blocked {} more connection(s) in the last {}s ({}). Top IPs: {}. Top domains: {}.",
+                total, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(elapsedNanos)), reasons, top(byAddress), top(byDomain));
+    }
+
+    private static String top(Map<String, Integer> counts) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        StringBuilder top = new StringBuilder();
+        for (int i = 0; i < Math.min(TOP_ENTRIES, entries.size()); i++) {
+            if (i > 0) {
+                top.append(", ");
+            }
+            top.append(entries.get(i).getKey()).append(" (").append(entries.get(i).getValue()).append(')');
+        }
+        return top.length() == 0 ? "none" : top.toString();
+    }
+
+    /**
+     * Gets the number of blocked connections that were logged as part of a summary.
+     *
+     * @return The summarized denial count.
+     */
+    public long getSummarizedCount() {
+        return summarized.sum();
+    }
+
+    private record Denial(BlockReason reason, InetAddress address, String domain) {
+    }
+}
@@ -0,0 +1,53 @@
+package com.otakusweeett.nobypass;
+
+public enum BlockReason {
+
+    INVALID_DOMAIN(1, "reason-invalid-domain", "kick-message"),
+    UUID_MISMATCH(2, "reason-uuid-mismatch", "kick-reserved-uuid"),
+    DENIED_ADDRESS(3, "reason-denied-address", "kick-denied-address");
+
+    private static final BlockReason[] BY_CODE = new BlockReason[16];
+
+    static {
+        for (BlockReason reason : values()) {
+            BY_CODE[reason.code] = reason;
+        }
+    }
+
+    private final int code;
+    private final String messageKey;
+    private final String kickMessageKey;
+
+    BlockReason(int code, String messageKey, String kickMessageKey) {
+        this.code = code;
+        this.messageKey = messageKey;
+        this.kickMessageKey = kickMessageKey;
+    }
+
+    /**
+     * Gets the stable code used to store this reason on disk.
+     *
+     * @return The reason code.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessageKey() {
+        return messageKey;
+    }
+
+    public String getKickMessageKey() {
+        return kickMessageKey;
+    }
+
+    /**
+     * Looks up a reason by its stored code.
+     *
+     * @param code The reason code.
+     * @return The reason, or null if the code is unknown.
+     */
+    public static BlockReason fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
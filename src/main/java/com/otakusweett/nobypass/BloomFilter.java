@@ -0,0 +1,70 @@
+package com.otakusweeett.nobypass;
+
+/**
+ * A fixed-size Bloom filter over 64-bit key hashes, used as a fast negative check
+ * before probing the reserved UUID table.
+ */
+public final class BloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * Creates a filter sized for the expected number of entries (about 1% false positives).
+     *
+     * @param expectedEntries The number of entries that will be added.
+     */
+    public BloomFilter(int expectedEntries) {
+        long wanted = Math.max(64L, (long) expectedEntries * BITS_PER_ENTRY);
+        int size = 64;
+        while (size < wanted && size < (1 << 30)) {
+            size <<= 1;
+        }
+        this.bits = new long[size >>> 6];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds a key hash to the filter.
+     *
+     * @param hash The 64-bit hash of the key.
+     */
+    public void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks if a key hash might have been added.
+     *
+     * @param hash The 64-bit hash of the key.
+     * @return False if the key was definitely never added, otherwise true.
+     */
+    public boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the memory used by the filter's bit array.
+     *
+     * @return The size in bytes.
+     */
+    public long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+}
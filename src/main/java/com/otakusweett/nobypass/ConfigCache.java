@@ -0,0 +1,361 @@
+package com.otakusweeett.nobypass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary cache of the last successfully compiled configuration, stored next to config.yml so
+ * the next startup can skip YAML parsing and rebuilding the reserved UUID index.
+ * <p>
+ * The cache records the size, modification time and CRC32C hash of every file it was built
+ * from (config.yml, the messages file and the optional reserved UUID and denied range files)
+ * and is only used while all of them are unchanged. It holds the parsed configuration without
+ * the reserved-uuid section, the merged messages, and the compiled domain rules, reserved UUID
+ * table and address ranges in the {@link PolicySnapshot} format.
+ * <p>
+ * The cache also records a hash of the defaults bundled with the plugin, so an upgrade that
+ * adds message keys or config defaults invalidates it even though no file on disk changed.
+ * <p>
+ * Layout (big-endian): magic {@code NBCC}, format version, hash of the bundled defaults, CRC32
+ * and length of the body, then the body: the source files, the configuration tree, the
+ * messages and the embedded snapshot.
+ */
+public final class ConfigCache {
+
+    static final String FILE_NAME = "config.cache";
+
+    private static final int MAGIC = 0x4E424343; // "NBCC"
+    // Bump whenever the layout, or what the cached configuration or rules mean, changes
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 24;
+    private static final List<String> BUNDLED_RESOURCES =
+            List.of("config.yml", "messages_en.yml", "messages_es.yml", "messages_fr.yml");
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte STRING = 6;
+    private static final byte LIST = 7;
+    private static final byte MAP = 8;
+
+    private final Map<String, Object> config;
+    private final Map<String, String> messages;
+    private final PolicySnapshot rules;
+
+    private ConfigCache(Map<String, Object> config, Map<String, String> messages, PolicySnapshot rules) {
+        this.config = config;
+        this.messages = messages;
+        this.rules = rules;
+    }
+
+    /**
+     * Memory-maps the cache of a data directory, if every file it was built from is unchanged.
+     *
+     * @param dataDirectory The plugin data directory.
+     * @return The cache.
+     * @throws IOException If there is no cache, it is stale, or it cannot be read.
+     */
+    public static ConfigCache read(Path dataDirectory) throws IOException {
+        Path file = dataDirectory.resolve(FILE_NAME);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException(file + " is not a configuration cache of this version");
+            }
+            if (buffer.getLong(8) != hashBundledDefaults()) {
+                throw new IOException(file + " was written by a different build of the plugin");
+            }
+            int checksum = buffer.getInt(16);
+            int bodyLength = buffer.getInt(20);
+            if (bodyLength < 0 || HEADER_BYTES + (long) bodyLength != buffer.limit()) {
+                throw new IOException(file + " is truncated");
+            }
+            ByteBuffer body = buffer.slice(HEADER_BYTES, bodyLength);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException(file + " failed its checksum");
+            }
+
+            try {
+                int sources = body.getInt();
+                for (int i = 0; i < sources; i++) {
+                    Path source = Path.of(readString(body));
+                    long size = body.getLong();
+                    long modified = body.getLong();
+                    long hash = body.getLong();
+                    if (!isUnchanged(source, size, modified, hash)) {
+                        throw new IOException(source.getFileName() + " changed since the cache was written");
+                    }
+                }
+
+                @SuppressWarnings("unchecked")
+                Map<String, Object> config = (Map<String, Object>) readValue(body);
+                int messageCount = body.getInt();
+                Map<String, String> messages = new HashMap<>(messageCount * 2);
+                for (int i = 0; i < messageCount; i++) {
+                    messages.put(readString(body), readString(body));
+                }
+                int snapshotLength = body.getInt();
+                PolicySnapshot rules = PolicySnapshot.decode(body.slice(body.position(), snapshotLength), file.toString());
+                return new ConfigCache(config, messages, rules);
+            } catch (RuntimeException e) {
+                throw new IOException(file + " is malformed: " + e.getMessage(), e);
+            }
+        } catch (NoSuchFileException e) {
+            throw new IOException("no configuration cache yet", e);
+        }
+    }
+
+    /**
+     * Writes the cache for a policy compiled from the given configuration and messages,
+     * replacing the previous cache atomically.
+     *
+     * @param dataDirectory  The plugin data directory.
+     * @param configManager  The loaded configuration.
+     * @param messageManager The loaded messages.
+     * @param policy         The policy compiled from them, before any shared rules were applied.
+     * @throws IOException If a source file cannot be hashed, the configuration holds values
+     *                     the cache cannot store, or the file cannot be written.
+     */
+    public static void write(Path dataDirectory, ConfigManager configManager, MessageManager messageManager,
+                             Policy policy) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        sources.add(configManager.getConfigFile());
+        sources.add(dataDirectory.resolve("messages_" + configManager.getLanguage() + ".yml"));
+        if (configManager.getReservedUUIDFile() != null) {
+            sources.add(configManager.getReservedUUIDFile());
+        }
+        if (configManager.getDeniedCidrsFile() != null) {
+            sources.add(configManager.getDeniedCidrsFile());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        bytes.write(new byte[HEADER_BYTES]);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(sources.size());
+            for (Path source : sources) {
+                // A missing optional file is recorded too, so creating it invalidates the cache
+                writeString(output, source.toAbsolutePath().toString());
+                if (Files.exists(source)) {
+                    output.writeLong(Files.size(source));
+                    output.writeLong(Files.getLastModifiedTime(source).toMillis());
+                    output.writeLong(hash(source));
+                } else {
+                    output.writeLong(-1);
+                    output.writeLong(-1);
+                    output.writeLong(-1);
+                }
+            }
+
+            // The reserved UUIDs are in the compiled table; keeping the section would double the cache
+            Map<String, Object> config = new LinkedHashMap<>(configManager.getConfig());
+            config.remove("reserved-uuid");
+            writeValue(output, config);
+
+            Map<String, String> messages = messageManager.getMessages();
+            output.writeInt(messages.size());
+            for (Map.Entry<String, String> message : messages.entrySet()) {
+                writeString(output, message.getKey());
+                writeString(output, message.getValue());
+            }
+
+            byte[] snapshot = PolicySnapshot.encode(0, policy);
+            output.writeInt(snapshot.length);
+            output.write(snapshot);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        int bodyLength = buffer.limit() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, bodyLength);
+        buffer.putInt(0, MAGIC)
+                .putInt(4, FORMAT_VERSION)
+                .putLong(8, hashBundledDefaults())
+                .putInt(16, (int) crc.getValue())
+                .putInt(20, bodyLength);
+
+        Path file = dataDirectory.resolve(FILE_NAME);
+        Path temporary = Files.createTempFile(dataDirectory, FILE_NAME, ".tmp");
+        try {
+            Files.write(temporary, buffer.array());
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static boolean isUnchanged(Path source, long size, long modified, long hash) throws IOException {
+        if (!Files.exists(source)) {
+            return size == -1;
+        }
+        // Size and modification time rule out most edits without reading the file
+        return Files.size(source) == size
+                && Files.getLastModifiedTime(source).toMillis() == modified
+                && hash(source) == hash;
+    }
+
+    private static long hashBundledDefaults() throws IOException {
+        CRC32C crc = new CRC32C();
+        byte[] chunk = new byte[64 * 1024];
+        for (String resource : BUNDLED_RESOURCES) {
+            crc.update(resource.getBytes(StandardCharsets.UTF_8));
+            try (InputStream input = ConfigCache.class.getClassLoader().getResourceAsStream(resource)) {
+                if (input == null) {
+                    continue;
+                }
+                int read;
+                while ((read = input.read(chunk)) > 0) {
+                    crc.update(chunk, 0, read);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static long hash(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        byte[] chunk = new byte[64 * 1024];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(chunk)) > 0) {
+                crc.update(chunk, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof Boolean bool) {
+            output.writeByte(bool ? TRUE : FALSE);
+        } else if (value instanceof Integer number) {
+            output.writeByte(INT);
+            output.writeInt(number);
+        } else if (value instanceof Long number) {
+            output.writeByte(LONG);
+            output.writeLong(number);
+        } else if (value instanceof Double number) {
+            output.writeByte(DOUBLE);
+            output.writeDouble(number);
+        } else if (value instanceof String string) {
+            output.writeByte(STRING);
+            writeString(output, string);
+        } else if (value instanceof List<?> list) {
+            output.writeByte(LIST);
+            output.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(output, element);
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            output.writeByte(MAP);
+            output.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(output, String.valueOf(entry.getKey()));
+                writeValue(output, entry.getValue());
+            }
+        } else {
+            // Dates, binary scalars and the like are rare in config.yml; such files are simply not cached
+            throw new IOException("config.yml holds a " + value.getClass().getSimpleName() + " value");
+        }
+    }
+
+    private static Object readValue(ByteBuffer body) {
+        byte type = body.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case INT:
+                return body.getInt();
+            case LONG:
+                return body.getLong();
+            case DOUBLE:
+                return body.getDouble();
+            case STRING:
+                return readString(body);
+            case LIST: {
+                int size = body.getInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(body));
+                }
+                return list;
+            }
+            case MAP: {
+                int size = body.getInt();
+                Map<String, Object> map = new LinkedHashMap<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    map.put(readString(body), readValue(body));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the cached configuration, without the reserved-uuid section.
+     *
+     * @return The configuration map.
+     */
+    public Map<String, Object> getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the cached messages, with the defaults already merged in.
+     *
+     * @return The messages by key.
+     */
+    public Map<String, String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Gets the compiled domain rules, reserved UUID table and address ranges.
+     *
+     * @return The compiled rules.
+     */
+    public PolicySnapshot getRules() {
+        return rules;
+    }
+}
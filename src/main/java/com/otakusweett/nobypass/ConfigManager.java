@@ -1,6 +1,7 @@
 package com.otakusweeett.nobypass;
 
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -12,27 +13,49 @@ import java.util.Map;
 public class ConfigManager {
 
     private final Path configFile;
-    private Map<String, Object> config;
+    private volatile Map<String, Object> config;
 
     public ConfigManager(Path dataDirectory) {
         this.configFile = dataDirectory.resolve("config.yml");
         loadConfig();
     }
 
+    /**
+     * Creates a configuration manager from an already parsed configuration, such as the one
+     * stored in the compiled configuration cache. {@link #loadConfig()} still reads config.yml.
+     *
+     * @param dataDirectory The plugin data directory.
+     * @param config        The parsed configuration.
+     */
+    public ConfigManager(Path dataDirectory, Map<String, Object> config) {
+        this.configFile = dataDirectory.resolve("config.yml");
+        this.config = config;
+    }
+
     /**
      * Loads the configuration file. If it doesn't exist, it creates a default one.
+     * If the file cannot be read or parsed, the exception rejects a reload, and at startup it
+     * aborts the construction of the plugin.
+     *
+     * @throws IllegalStateException If the file cannot be read or is not a valid configuration.
      */
     public void loadConfig() {
         if (!Files.exists(configFile)) {
             saveDefaultConfigFromResource();
         }
 
+        Object loaded;
         try (var reader = Files.newBufferedReader(configFile)) {
             Yaml yaml = new Yaml();
-            config = yaml.load(reader);
-        } catch (IOException e) {
-            config = Map.of(); // Fallback to an empty configuration if loading fails
+            loaded = yaml.load(reader);
+        } catch (IOException | YAMLException e) {
+            throw new IllegalStateException("Unable to load " + configFile.getFileName() + ": " + e.getMessage(), e);
+        }
+
+        if (!(loaded instanceof Map)) {
+            throw new IllegalStateException(configFile.getFileName() + " is empty or not a YAML mapping");
         }
+        config = (Map<String, Object>) loaded;
     }
 
     /**
@@ -62,6 +85,15 @@ public class ConfigManager {
         return (boolean) config.getOrDefault("enabled", true);
     }
 
+    /**
+     * Checks if edits to config.yml and the message files are picked up automatically.
+     *
+     * @return True if automatic reloading is enabled, otherwise false.
+     */
+    public boolean isAutoReloadEnabled() {
+        return (boolean) config.getOrDefault("auto-reload", true);
+    }
+
     /**
      * Gets the language setting from the configuration.
      *
@@ -80,6 +112,50 @@ public class ConfigManager {
         return (Map<String, Map<String, String>>) config.getOrDefault("reserved-uuid", Map.of());
     }
 
+    /**
+     * Gets the bulk reserved UUID file, resolved against the plugin data directory.
+     *
+     * @return The path to the file, or null if none is configured.
+     */
+    public Path getReservedUUIDFile() {
+        Object file = config.getOrDefault("reserved-uuid-file", "");
+        if (file == null || file.toString().isEmpty()) {
+            return null;
+        }
+        return configFile.getParent().resolve(file.toString());
+    }
+
+    /**
+     * Gets the address ranges that are always allowed, even inside a denied range.
+     *
+     * @return A list of ranges in CIDR notation.
+     */
+    public List<String> getAllowedCidrs() {
+        return (List<String>) config.getOrDefault("allowed-cidrs", List.of());
+    }
+
+    /**
+     * Gets the address ranges that are blocked.
+     *
+     * @return A list of ranges in CIDR notation.
+     */
+    public List<String> getDeniedCidrs() {
+        return (List<String>) config.getOrDefault("denied-cidrs", List.of());
+    }
+
+    /**
+     * Gets the file with additional denied address ranges, resolved against the plugin data directory.
+     *
+     * @return The path to the file, or null if none is configured.
+     */
+    public Path getDeniedCidrsFile() {
+        Object file = config.getOrDefault("denied-cidrs-file", "");
+        if (file == null || file.toString().isEmpty()) {
+            return null;
+        }
+        return configFile.getParent().resolve(file.toString());
+    }
+
     /**
      * Gets the webhook configuration from the configuration.
      *
@@ -89,6 +165,73 @@ public class ConfigManager {
         return (Map<String, Object>) config.getOrDefault("webhook", Map.of());
     }
 
+    /**
+     * Gets the throttle configuration from the configuration.
+     *
+     * @return A map containing the throttle configuration.
+     */
+    public Map<String, Object> getThrottleConfig() {
+        return (Map<String, Object>) config.getOrDefault("throttle", Map.of());
+    }
+
+    /**
+     * Gets the denial cache configuration from the configuration.
+     *
+     * @return A map containing the denial cache configuration.
+     */
+    public Map<String, Object> getDenialCacheConfig() {
+        return (Map<String, Object>) config.getOrDefault("denial-cache", Map.of());
+    }
+
+    /**
+     * Gets the block logging configuration from the configuration.
+     *
+     * @return A map containing the logging configuration.
+     */
+    public Map<String, Object> getLoggingConfig() {
+        return (Map<String, Object>) config.getOrDefault("logging", Map.of());
+    }
+
+    /**
+     * Gets the attack mode configuration from the configuration.
+     *
+     * @return A map containing the attack mode configuration.
+     */
+    public Map<String, Object> getAttackModeConfig() {
+        return (Map<String, Object>) config.getOrDefault("attack-mode", Map.of());
+    }
+
+    /**
+     * Gets the decision trace configuration from the configuration.
+     *
+     * @return A map containing the trace configuration.
+     */
+    public Map<String, Object> getTraceConfig() {
+        return (Map<String, Object>) config.getOrDefault("trace", Map.of());
+    }
+
+    /**
+     * Gets the shared policy configuration from the configuration.
+     *
+     * @return A map containing the shared policy configuration.
+     */
+    public Map<String, Object> getSharedPolicyConfig() {
+        return (Map<String, Object>) config.getOrDefault("shared-policy", Map.of());
+    }
+
+    /**
+     * Gets the shared policy snapshot file, resolved against the plugin data directory.
+     *
+     * @return The path to the file, or null if none is configured.
+     */
+    public Path getSharedPolicyFile() {
+        Object file = getSharedPolicyConfig().getOrDefault("file", "");
+        if (file == null || file.toString().isEmpty()) {
+            return null;
+        }
+        return configFile.getParent().resolve(file.toString());
+    }
+
     /**
      * Checks if the webhook is enabled.
      *
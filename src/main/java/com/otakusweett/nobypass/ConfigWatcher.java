@@ -0,0 +1,113 @@
+package com.otakusweeett.nobypass;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the plugin data directory and reloads the policy after config.yml or a messages_*.yml
+ * file changes. Editors often write a file several times in a row, so a reload only starts once
+ * the directory has been quiet for the debounce period.
+ */
+public class ConfigWatcher {
+
+    private static final long DEBOUNCE_MILLIS = 1000;
+
+    private final Path dataDirectory;
+    private final PolicyManager policyManager;
+    private final Logger logger;
+    private WatchService watchService;
+    private Thread thread;
+
+    public ConfigWatcher(Path dataDirectory, PolicyManager policyManager, Logger logger) {
+        this.dataDirectory = dataDirectory;
+        this.policyManager = policyManager;
+        this.logger = logger;
+    }
+
+    /**
+     * Starts watching the data directory on a background thread.
+     */
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dataDirectory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.warn("Unable to watch {} for changes; use /nobypass reload to apply edits.", dataDirectory, e);
+            return;
+        }
+
+        thread = new Thread(this::run, "NoBypass-Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the data directory.
+     */
+    public void shutdown() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+            // The watcher thread exits either way
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (!drain(watchService.take())) {
+                    continue;
+                }
+
+                // Wait until the files stop changing before reading them
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key);
+                }
+
+                if (policyManager.current().isAutoReloadEnabled()) {
+                    // Failures are logged by the policy manager and leave the previous policy active
+                    policyManager.reload().exceptionally(error -> null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Consumes the pending events of a watch key.
+     *
+     * @param key The signalled key.
+     * @return True if a configuration or message file changed.
+     */
+    private boolean drain(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+                continue;
+            }
+            String fileName = event.context().toString();
+            relevant |= fileName.equals("config.yml")
+                    || (fileName.startsWith("messages_") && fileName.endsWith(".yml"));
+        }
+        key.reset();
+        return relevant;
+    }
+}
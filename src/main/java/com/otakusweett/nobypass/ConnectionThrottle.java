@@ -0,0 +1,94 @@
+package com.otakusweeett.nobypass;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConnectionThrottle {
+
+    private static final int MAX_TRACKED_ADDRESSES = 100_000;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final ConcurrentMap<InetAddress, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Takes a token for a blocked attempt from the given address.
+     *
+     * @param address The source address of the attempt.
+     * @param policy  The current policy, holding the rate and burst settings.
+     * @return True if the attempt is within the rate, false if the address is throttled.
+     */
+    public boolean tryAcquire(InetAddress address, Policy policy) {
+        if (!policy.isThrottleEnabled() || address == null) {
+            return true;
+        }
+
+        Bucket bucket = buckets.get(address);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_TRACKED_ADDRESSES) {
+                return true; // Fail open rather than grow without bound
+            }
+            bucket = buckets.computeIfAbsent(address, key -> new Bucket(policy.getThrottleBurst()));
+        }
+
+        if (bucket.tryAcquire(System.nanoTime(), policy.getThrottleBurst(), policy.getThrottleAttemptsPerMinute())) {
+            return true;
+        }
+        throttled.increment();
+        return false;
+    }
+
+    /**
+     * Removes addresses that have not made an attempt for a while.
+     */
+    public void evictIdle() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    /**
+     * Gets the number of attempts that were short-circuited by the throttle.
+     *
+     * @return The throttled attempt count.
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * Gets the number of addresses currently tracked.
+     *
+     * @return The tracked address count.
+     */
+    public int getTrackedAddresses() {
+        return buckets.size();
+    }
+
+    private static final class Bucket {
+
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private Bucket(int burst) {
+            this.tokens = burst;
+        }
+
+        private synchronized boolean tryAcquire(long now, int burst, int attemptsPerMinute) {
+            double refill = (now - lastRefill) * attemptsPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            tokens = Math.min(burst, tokens + refill);
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private synchronized boolean isIdle(long now) {
+            return now - lastRefill > IDLE_NANOS;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.otakusweeett.nobypass;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records sampled connection decisions into a fixed-size ring buffer: who connected, from where,
+ * through which virtual host, and the result and time of every check. Connections that are not
+ * sampled cost one random number; recording a sampled one is lock-free and overwrites the oldest
+ * trace once the buffer is full. {@link #dump(Path)} writes the buffer as JSON lines.
+ */
+public class DecisionTracer {
+
+    static final int MAX_BUFFER_SIZE = 65_536;
+    private static final int MAX_STEPS = 8;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+            .withZone(ZoneId.systemDefault());
+
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile AtomicReferenceArray<Trace> ring = new AtomicReferenceArray<>(0);
+
+    /**
+     * Starts a trace if this connection is sampled.
+     *
+     * @param policy   The current policy, holding the trace settings.
+     * @param stage    The stage of the login, such as pre-login.
+     * @param username The username.
+     * @param uuid     The UUID, or null if it is not known yet.
+     * @param domain   The virtual host, or null.
+     * @param address  The source address.
+     * @return The trace to record the checks into, or null if the connection is not sampled.
+     */
+    public Trace start(Policy policy, String stage, String username, UUID uuid, String domain, InetAddress address) {
+        int oneIn = policy.getTraceSampleOneIn();
+        if (oneIn <= 0 || (oneIn > 1 && ThreadLocalRandom.current().nextInt(oneIn) != 0)) {
+            return null;
+        }
+        if (ring.length() != policy.getTraceBufferSize()) {
+            resize(policy.getTraceBufferSize());
+        }
+        return new Trace(System.currentTimeMillis(), stage, username, uuid, domain, address);
+    }
+
+    private synchronized void resize(int size) {
+        AtomicReferenceArray<Trace> current = ring;
+        if (current.length() == size) {
+            return;
+        }
+        // Keep the most recent traces that still fit
+        AtomicReferenceArray<Trace> resized = new AtomicReferenceArray<>(size);
+        List<Trace> traces = snapshot(current);
+        for (Trace trace : traces.subList(Math.max(0, traces.size() - size), traces.size())) {
+            resized.set((int) (trace.sequence % size), trace);
+        }
+        ring = resized;
+    }
+
+    /**
+     * Completes a trace and stores it in the ring buffer.
+     *
+     * @param trace   The trace, or null if the connection was not sampled.
+     * @param verdict The outcome of the stage.
+     */
+    public void finish(Trace trace, String verdict) {
+        if (trace == null) {
+            return;
+        }
+        trace.verdict = verdict;
+        trace.totalNanos = System.nanoTime() - trace.startNanos;
+        AtomicReferenceArray<Trace> current = ring;
+        trace.sequence = sequence.getAndIncrement();
+        current.set((int) (trace.sequence % current.length()), trace);
+    }
+
+    /**
+     * Writes the buffered traces, oldest first, to a new file in the given directory.
+     *
+     * @param directory The directory for trace files.
+     * @return The written file, or null if there are no traces.
+     * @throws IOException If the file cannot be written.
+     */
+    public Path dump(Path directory) throws IOException {
+        List<Trace> traces = snapshot(ring);
+        if (traces.isEmpty()) {
+            return null;
+        }
+
+        Files.createDirectories(directory);
+        Path file = directory.resolve("trace-" + FILE_TIME.format(Instant.now()) + ".jsonl");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Trace trace : traces) {
+                writer.write(trace.toJson().toString());
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Gets the number of traces recorded since startup, including overwritten ones.
+     *
+     * @return The trace count.
+     */
+    public long getTraceCount() {
+        return sequence.get();
+    }
+
+    private static List<Trace> snapshot(AtomicReferenceArray<Trace> ring) {
+        List<Trace> traces = new ArrayList<>(ring.length());
+        for (int i = 0; i < ring.length(); i++) {
+            Trace trace = ring.get(i);
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+        traces.sort(Comparator.comparingLong(trace -> trace.sequence));
+        return traces;
+    }
+
+    /**
+     * The checks of one sampled connection. Only used by the thread validating it until
+     * {@link #finish(Trace, String)} publishes it.
+     */
+    public static final class Trace {
+
+        private final long timestamp;
+        private final long startNanos = System.nanoTime();
+        private final String stage;
+        private final String username;
+        private final UUID uuid;
+        private final String domain;
+        private final InetAddress address;
+        private final String[] checks = new String[MAX_STEPS];
+        private final String[] results = new String[MAX_STEPS];
+        private final long[] nanos = new long[MAX_STEPS];
+        private int steps;
+        private String verdict;
+        private long totalNanos;
+        private long sequence;
+
+        private Trace(long timestamp, String stage, String username, UUID uuid, String domain, InetAddress address) {
+            this.timestamp = timestamp;
+            this.stage = stage;
+            this.username = username;
+            this.uuid = uuid;
+            this.domain = domain;
+            this.address = address;
+        }
+
+        /**
+         * Records the result of one check.
+         *
+         * @param check        The name of the check.
+         * @param result       Its result.
+         * @param elapsedNanos The time it took.
+         */
+        public void step(String check, String result, long elapsedNanos) {
+            if (steps == MAX_STEPS) {
+                return;
+            }
+            checks[steps] = check;
+            results[steps] = result;
+            nanos[steps] = elapsedNanos;
+            steps++;
+        }
+
+        private JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("time", Instant.ofEpochMilli(timestamp).toString());
+            json.addProperty("stage", stage);
+            json.addProperty("username", username);
+            json.addProperty("uuid", uuid == null ? null : uuid.toString());
+            json.addProperty("domain", domain);
+            json.addProperty("ip", address == null ? null : address.getHostAddress());
+            JsonArray stepsJson = new JsonArray();
+            for (int i = 0; i < steps; i++) {
+                JsonObject step = new JsonObject();
+                step.addProperty("check", checks[i]);
+                step.addProperty("result", results[i]);
+                step.addProperty("nanos", nanos[i]);
+                stepsJson.add(step);
+            }
+            json.add("steps", stepsJson);
+            json.addProperty("verdict", verdict);
+            json.addProperty("total-nanos", totalNanos);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.otakusweeett.nobypass;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers recent denials by (address, virtual host, username) so that bots retrying the same
+ * connection get the pre-built kick without a new alert, log line, journal record or webhook.
+ * <p>
+ * Entries expire after the configured TTL and the cache is bounded by a segmented LRU: new
+ * entries start in a small probation segment and are promoted to the protected segment when they
+ * are hit again, so a burst of one-off denials cannot push out the tuples that keep retrying.
+ * Changing the policy clears the cache, since a denial may no longer apply.
+ * <p>
+ * The cache is split into stripes by key, each with its own lock and its own share of the
+ * capacity, so concurrent denials rarely contend. Each stripe keeps its entries in primitive
+ * arrays, so a lookup allocates nothing.
+ */
+public class DenialCache {
+
+    // Share of the capacity reserved for entries that were hit at least once
+    private static final double PROTECTED_RATIO = 0.8;
+    // Power of two, the stripe is picked from the top bits of the key
+    private static final int STRIPES = 16;
+    private static final int STRIPE_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(STRIPES);
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public DenialCache() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Records a denial and checks if the same connection was denied within the TTL.
+     *
+     * @param policy   The current policy, holding the cache settings.
+     * @param address  The source address.
+     * @param domain   The virtual host, or null.
+     * @param username The username.
+     * @return True if this is a repeat of a recent denial, false if it is new.
+     */
+    public boolean isRepeat(Policy policy, InetAddress address, String domain, String username) {
+        if (!policy.isDenialCacheEnabled()) {
+            return false;
+        }
+
+        long key = key(address, domain, username);
+        long now = System.nanoTime();
+        Stripe stripe = stripes[(int) (key >>> STRIPE_SHIFT)];
+        boolean repeat;
+        synchronized (stripe) {
+            repeat = stripe.access(policy, key, now);
+        }
+        if (repeat) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return repeat;
+    }
+
+    /**
+     * Removes expired entries.
+     */
+    public void evictExpired() {
+        long now = System.nanoTime();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.evictExpired(now);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cached denials.
+     *
+     * @return The entry count, including entries that expired or belong to a replaced policy but
+     *         were not evicted yet.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size[Stripe.PROBATION] + stripe.size[Stripe.PROTECTED];
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the share of denials that were repeats served from the cache.
+     *
+     * @return The hit ratio between 0 and 1.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private static long key(InetAddress address, String domain, String username) {
+        // A collision only suppresses one alert, it never changes the verdict
+        long hash = ReservedUUIDManager.hashUsername(username);
+        hash = hash * 31 + (domain == null ? 0 : domain.hashCode());
+        hash = hash * 31 + (address == null ? 0 : address.hashCode());
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * One stripe of the cache. Entries are nodes in fixed arrays, linked into a probation and a
+     * protected list with the most recently used entry at the head, and found through an open
+     * addressing table of node indexes. Only used while holding the stripe's lock.
+     */
+    private static final class Stripe {
+
+        private static final int PROBATION = 0;
+        private static final int PROTECTED = 1;
+        private static final int NONE = -1;
+
+        private Policy owner;
+        private long[] keys = new long[0];
+        private long[] expiresAt = new long[0];
+        private int[] prev = new int[0];
+        private int[] next = new int[0];
+        private byte[] segment = new byte[0];
+        // Node index + 1 per slot, 0 if the slot is empty
+        private int[] table = new int[1];
+        private int mask;
+        private int freeHead = NONE;
+        private final int[] head = {NONE, NONE};
+        private final int[] tail = {NONE, NONE};
+        private final int[] size = new int[2];
+        private final int[] capacity = new int[2];
+
+        private boolean access(Policy policy, long key, long now) {
+            if (policy != owner) {
+                reset(policy.getDenialCacheMaxEntries());
+                owner = policy;
+            }
+
+            int slot = find(key);
+            if (slot != NONE) {
+                int node = table[slot] - 1;
+                if (expiresAt[node] - now > 0) {
+                    promote(node);
+                    return true;
+                }
+                remove(slot);
+            }
+
+            if (size[PROBATION] >= capacity[PROBATION]) {
+                remove(find(keys[tail[PROBATION]]));
+            }
+            int node = freeHead;
+            freeHead = next[node];
+            keys[node] = key;
+            expiresAt[node] = now + TimeUnit.SECONDS.toNanos(policy.getDenialCacheTtlSeconds());
+            link(node, PROBATION);
+            insert(node);
+            return false;
+        }
+
+        private void reset(int maxEntries) {
+            int total = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+            capacity[PROTECTED] = (int) (total * PROTECTED_RATIO);
+            capacity[PROBATION] = total - capacity[PROTECTED];
+            keys = new long[total];
+            expiresAt = new long[total];
+            prev = new int[total];
+            next = new int[total];
+            segment = new byte[total];
+            // At most half full, so probes stay short
+            table = new int[Integer.highestOneBit(total * 2 - 1) << 1];
+            mask = table.length - 1;
+            for (int node = 0; node < total; node++) {
+                next[node] = node + 1 < total ? node + 1 : NONE;
+            }
+            freeHead = 0;
+            Arrays.fill(head, NONE);
+            Arrays.fill(tail, NONE);
+            Arrays.fill(size, 0);
+        }
+
+        private void promote(int node) {
+            unlink(node);
+            link(node, PROTECTED);
+            if (size[PROTECTED] > capacity[PROTECTED]) {
+                // Demote the least recently used protected entry instead of dropping it
+                int eldest = tail[PROTECTED];
+                unlink(eldest);
+                link(eldest, PROBATION);
+            }
+        }
+
+        private void evictExpired(long now) {
+            for (int list = PROBATION; list <= PROTECTED; list++) {
+                int node = head[list];
+                while (node != NONE) {
+                    int following = next[node];
+                    if (expiresAt[node] - now <= 0) {
+                        remove(find(keys[node]));
+                    }
+                    node = following;
+                }
+            }
+        }
+
+        private void link(int node, int list) {
+            segment[node] = (byte) list;
+            prev[node] = NONE;
+            next[node] = head[list];
+            if (head[list] != NONE) {
+                prev[head[list]] = node;
+            } else {
+                tail[list] = node;
+            }
+            head[list] = node;
+            size[list]++;
+        }
+
+        private void unlink(int node) {
+            int list = segment[node];
+            if (prev[node] != NONE) {
+                next[prev[node]] = next[node];
+            } else {
+                head[list] = next[node];
+            }
+            if (next[node] != NONE) {
+                prev[next[node]] = prev[node];
+            } else {
+                tail[list] = prev[node];
+            }
+            size[list]--;
+        }
+
+        private int find(long key) {
+            for (int slot = (int) key & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[table[slot] - 1] == key) {
+                    return slot;
+                }
+            }
+            return NONE;
+        }
+
+        private void insert(int node) {
+            int slot = (int) keys[node] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = node + 1;
+        }
+
+        private void remove(int slot) {
+            int node = table[slot] - 1;
+            unlink(node);
+            next[node] = freeHead;
+            freeHead = node;
+
+            // Shift back the entries after the gap that would no longer be found past it
+            int gap = slot;
+            for (int i = (gap + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+                int home = (int) keys[table[i] - 1] & mask;
+                if (((i - home) & mask) >= ((i - gap) & mask)) {
+                    table[gap] = table[i];
+                    gap = i;
+                }
+            }
+            table[gap] = 0;
+        }
+    }
+}
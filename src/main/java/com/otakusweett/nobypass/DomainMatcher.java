@@ -0,0 +1,189 @@
+package com.otakusweeett.nobypass;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Matches host names against exact, wildcard ({@code *.example.net}) and suffix
+ * ({@code .example.net}) rules using a trie keyed by labels from right to left.
+ * A lookup walks at most one node per label of the host, no matter how many rules are loaded.
+ */
+public final class DomainMatcher {
+
+    private final Node root = new Node(null);
+    private final Set<String> rules = new TreeSet<>();
+
+    private DomainMatcher() {
+    }
+
+    /**
+     * Compiles a matcher from a list of domain rules.
+     *
+     * @param patterns The configured domain rules.
+     * @return A matcher for the given rules.
+     */
+    public static DomainMatcher compile(Collection<String> patterns) {
+        DomainMatcher matcher = new DomainMatcher();
+        for (String pattern : patterns) {
+            if (pattern != null) {
+                matcher.add(pattern.trim().toLowerCase());
+            }
+        }
+        return matcher;
+    }
+
+    private void add(String pattern) {
+        boolean wildcard = false;
+        boolean exact = true;
+        if (pattern.startsWith("*.")) {
+            pattern = pattern.substring(2);
+            wildcard = true;
+            exact = false;
+        } else if (pattern.startsWith(".")) {
+            pattern = pattern.substring(1);
+            wildcard = true;
+        }
+        if (pattern.endsWith(".")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        if (pattern.isEmpty()) {
+            return;
+        }
+        if (!rules.add(wildcard ? (exact ? "." : "*.") + pattern : pattern)) {
+            return; // Duplicate of a rule already in the trie
+        }
+
+        Node node = root;
+        int end = pattern.length();
+        while (end > 0) {
+            int start = pattern.lastIndexOf('.', end - 1) + 1;
+            node = node.getOrCreate(pattern.substring(start, end));
+            end = start - 1;
+        }
+        node.exact |= exact;
+        node.wildcard |= wildcard;
+    }
+
+    /**
+     * Checks if a host name matches any of the rules.
+     *
+     * @param host The lowercased host name.
+     * @return True if the host is allowed, otherwise false.
+     */
+    public boolean matches(String host) {
+        if (host == null) {
+            return false;
+        }
+        int end = host.length();
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == 0) {
+            return false;
+        }
+
+        Node node = root;
+        boolean matched = false;
+        while (end > 0) {
+            // A wildcard on this node covers the remaining, more specific labels
+            matched |= node.wildcard;
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.find(host, start, end);
+            if (node == null) {
+                return matched;
+            }
+            end = start - 1;
+        }
+        return node.exact || matched;
+    }
+
+    /**
+     * Gets the number of rules in this matcher.
+     *
+     * @return The rule count.
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Gets the normalized rules of this matcher, in sorted order.
+     *
+     * @return An unmodifiable set of rules.
+     */
+    public Set<String> getRules() {
+        return Collections.unmodifiableSet(rules);
+    }
+
+    private static final class Node {
+
+        private final String label;
+        private Node[] children;
+        private int childCount;
+        private boolean exact;
+        private boolean wildcard;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private Node getOrCreate(String label) {
+            Node existing = find(label, 0, label.length());
+            if (existing != null) {
+                return existing;
+            }
+            if (children == null) {
+                children = new Node[4];
+            } else if ((childCount + 1) * 2 > children.length) {
+                Node[] old = children;
+                children = new Node[old.length * 2];
+                for (Node child : old) {
+                    if (child != null) {
+                        insert(child);
+                    }
+                }
+            }
+            Node child = new Node(label);
+            insert(child);
+            childCount++;
+            return child;
+        }
+
+        private void insert(Node child) {
+            int mask = children.length - 1;
+            int index = mix(child.label.hashCode()) & mask;
+            while (children[index] != null) {
+                index = (index + 1) & mask;
+            }
+            children[index] = child;
+        }
+
+        private Node find(String host, int start, int end) {
+            if (children == null) {
+                return null;
+            }
+            // Same hash as String.hashCode, computed over the region without a substring
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + host.charAt(i);
+            }
+            int length = end - start;
+            int mask = children.length - 1;
+            int index = mix(hash) & mask;
+            Node child;
+            while ((child = children[index]) != null) {
+                if (child.label.length() == length && host.regionMatches(start, child.label, 0, length)) {
+                    return child;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
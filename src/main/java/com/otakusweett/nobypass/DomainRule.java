@@ -0,0 +1,42 @@
+package com.otakusweeett.nobypass;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * Refuses connections through a virtual host that is not in allowed-domains.
+ */
+public class DomainRule implements Rule {
+
+    private final DomainMatcher allowedDomains;
+
+    public DomainRule(DomainMatcher allowedDomains) {
+        this.allowedDomains = allowedDomains;
+    }
+
+    @Override
+    public String getName() {
+        return "domain";
+    }
+
+    @Override
+    public Scope getScope() {
+        return Scope.PRE_LOGIN;
+    }
+
+    @Override
+    public int getCost() {
+        // One lookup per label of the host for wildcard rules
+        return 2;
+    }
+
+    @Override
+    public BlockReason getBlockReason() {
+        return BlockReason.INVALID_DOMAIN;
+    }
+
+    @Override
+    public boolean denies(String username, UUID uuid, String domain, InetAddress address) {
+        return !allowedDomains.matches(domain);
+    }
+}
@@ -0,0 +1,240 @@
+package com.otakusweeett.nobypass;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+
+/**
+ * Finds the most frequent keys of an unbounded stream in fixed memory. A count-min sketch
+ * estimates the count of every key, and a fixed-size Space-Saving table keeps the top candidates:
+ * a key whose estimate beats the smallest candidate replaces it. Counting a key is lock-free and
+ * allocation-free; the lock is only taken when a key is admitted, which becomes rare once a few
+ * keys clearly dominate, as they do during a wave.
+ * <p>
+ * Each row of the sketch takes its own bits of a 64-bit hash seeded at startup, so keys chosen to
+ * collide in one row do not collide in the others. Estimates never undercount and overcount by at
+ * most about 0.15% of all counted keys. Counts are halved by {@link #decay()}, so the top entries
+ * follow recent traffic instead of all time.
+ *
+ * @param <T> The key type.
+ */
+public class HeavyHitters<T> {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048; // Power of two
+    private static final int ROW_BITS = Long.SIZE / DEPTH;
+    // Unknown to attackers, so they cannot pick keys that share every row
+    private static final long SEED = new SecureRandom().nextLong();
+    private static final Comparator<Entry<?>> BY_COUNT = Comparator.comparingLong(Entry::count);
+
+    private final ToLongFunction<? super T> hasher;
+    private final AtomicLongArray counters = new AtomicLongArray(DEPTH * WIDTH);
+    // Lock-free membership test of the candidate table
+    private final Set<T> candidates = ConcurrentHashMap.newKeySet();
+    // Candidate table, guarded by this
+    private final Object[] keys;
+    private final long[] hashes;
+    private int size;
+    // Smallest estimate among the candidates, or 0 while there is room for more
+    private volatile long admissionThreshold;
+
+    /**
+     * Creates a tracker for the given number of top entries.
+     *
+     * @param capacity The number of top entries to keep.
+     * @param hasher   The 64-bit hash of a key, such as {@link #hash(String)}.
+     */
+    public HeavyHitters(int capacity, ToLongFunction<? super T> hasher) {
+        this.hasher = hasher;
+        this.keys = new Object[capacity];
+        this.hashes = new long[capacity];
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key The key.
+     */
+    public void add(T key) {
+        long hash = hasher.applyAsLong(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(row, hash)));
+        }
+        if (estimate > admissionThreshold && !candidates.contains(key)) {
+            admit(key, hash, estimate);
+        }
+    }
+
+    /**
+     * Estimates how often a key was counted.
+     *
+     * @param key The key.
+     * @return The estimated count, never lower than the real one.
+     */
+    public long estimate(T key) {
+        return estimate(hasher.applyAsLong(key));
+    }
+
+    private long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, hash)));
+        }
+        return estimate;
+    }
+
+    private synchronized void admit(T key, long hash, long estimate) {
+        if (candidates.contains(key)) {
+            return;
+        }
+        if (size < keys.length) {
+            keys[size] = key;
+            hashes[size] = hash;
+            size++;
+            candidates.add(key);
+            if (size == keys.length) {
+                admissionThreshold = smallestEstimate();
+            }
+            return;
+        }
+
+        // Find the smallest candidate and the next smallest, which sets the new threshold
+        int smallest = 0;
+        long smallestCount = Long.MAX_VALUE;
+        long nextCount = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            long count = estimate(hashes[i]);
+            if (count < smallestCount) {
+                nextCount = smallestCount;
+                smallestCount = count;
+                smallest = i;
+            } else if (count < nextCount) {
+                nextCount = count;
+            }
+        }
+        if (estimate <= smallestCount) {
+            admissionThreshold = smallestCount;
+            return;
+        }
+        candidates.remove(keys[smallest]);
+        keys[smallest] = key;
+        hashes[smallest] = hash;
+        candidates.add(key);
+        admissionThreshold = Math.min(estimate, nextCount);
+    }
+
+    /**
+     * Gets the most frequent keys, most frequent first.
+     *
+     * @param limit The maximum number of entries.
+     * @return The top entries with their estimated counts.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<Entry<T>> getTop(int limit) {
+        List<Entry<T>> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long count = estimate(hashes[i]);
+            if (count > 0) {
+                entries.add(new Entry<>((T) keys[i], count));
+            }
+        }
+        entries.sort(BY_COUNT.reversed());
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    /**
+     * Halves every count so old traffic fades out. Called periodically by the scheduler.
+     */
+    public synchronized void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.getAndUpdate(i, count -> count >> 1);
+        }
+        // Drop the candidates that faded out, keeping the table packed
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (estimate(hashes[i]) == 0) {
+                candidates.remove(keys[i]);
+            } else {
+                keys[kept] = keys[i];
+                hashes[kept] = hashes[i];
+                kept++;
+            }
+        }
+        Arrays.fill(keys, kept, size, null);
+        size = kept;
+        admissionThreshold = size < keys.length ? 0 : smallestEstimate();
+    }
+
+    private long smallestEstimate() {
+        long smallest = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            smallest = Math.min(smallest, estimate(hashes[i]));
+        }
+        return smallest;
+    }
+
+    /**
+     * Hashes a string key from its characters.
+     *
+     * @param key The key.
+     * @return The 64-bit hash.
+     */
+    public static long hash(String key) {
+        long hash = SEED;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(hash ^ key.length());
+    }
+
+    /**
+     * Hashes an address key. IPv4 addresses are read from their hash code, which is their value;
+     * IPv6 addresses copy their 16 bytes, since {@link java.net.Inet6Address} offers no other way.
+     *
+     * @param key The key.
+     * @return The 64-bit hash.
+     */
+    public static long hash(InetAddress key) {
+        if (key instanceof Inet4Address) {
+            return mix(SEED ^ key.hashCode());
+        }
+        long hash = SEED;
+        for (byte b : key.getAddress()) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static int index(int row, long hash) {
+        return row * WIDTH + ((int) (hash >>> (row * ROW_BITS)) & (WIDTH - 1));
+    }
+
+    private static long mix(long hash) {
+        // Murmur3 finalizer, so every bit of the input affects the bits of every row
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * A top key and its estimated count.
+     *
+     * @param key   The key.
+     * @param count The estimated count.
+     * @param <T>   The key type.
+     */
+    public record Entry<T>(T key, long count) {
+    }
+}
@@ -1,6 +1,7 @@
 package com.otakusweeett.nobypass;
 
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,18 +12,31 @@ import java.util.Map;
 
 public class MessageManager {
 
-    private final Map<String, String> messages = new HashMap<>();
+    private volatile Map<String, String> messages = Map.of();
+    private volatile Map<String, MessageTemplate> templates = Map.of();
 
     public MessageManager(Path dataDirectory, String lang) {
         loadMessages(lang, dataDirectory);
     }
 
+    /**
+     * Crea el gestor a partir de mensajes ya cargados, por ejemplo desde la caché compilada.
+     *
+     * @param messages Los mensajes, con los valores predeterminados ya combinados.
+     */
+    public MessageManager(Map<String, String> messages) {
+        apply(messages);
+    }
+
     /**
      * Carga el archivo de mensajes para el idioma especificado.
      * Si el archivo no existe, lo crea desde el recurso predeterminado.
+     * Las claves que falten en el archivo se toman del recurso predeterminado.
+     * Si el archivo no se puede leer o analizar, se conservan los mensajes cargados anteriormente.
      *
      * @param lang El código de idioma (por ejemplo, "en", "es", "fr").
      * @param dataDirectory El directorio donde se almacenan los archivos de configuración.
+     * @throws IllegalStateException Si el archivo no se puede leer o no es un mapa YAML válido.
      */
     public void loadMessages(String lang, Path dataDirectory) {
         Path messageFile = dataDirectory.resolve("messages_" + lang + ".yml");
@@ -31,14 +45,59 @@ public class MessageManager {
             saveDefaultMessagesFromResource(lang, messageFile);
         }
 
-        try (var reader = Files.newBufferedReader(messageFile)) {
-            Yaml yaml = new Yaml();
-            Map<String, String> loadedMessages = yaml.load(reader);
-            if (loadedMessages != null) {
-                messages.putAll(loadedMessages);
+        Map<String, String> merged = new HashMap<>(messages);
+        merged.putAll(loadDefaultMessages(lang));
+
+        // Sin archivo (por ejemplo, un idioma sin recurso incluido) se usan los mensajes predeterminados
+        Object loaded = null;
+        if (Files.exists(messageFile)) {
+            try (var reader = Files.newBufferedReader(messageFile)) {
+                Yaml yaml = new Yaml();
+                loaded = yaml.load(reader);
+            } catch (IOException | YAMLException e) {
+                throw new IllegalStateException("Unable to load " + messageFile.getFileName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        if (loaded instanceof Map) {
+            merged.putAll((Map<String, String>) loaded);
+        } else if (loaded != null) {
+            throw new IllegalStateException(messageFile.getFileName() + " is not a YAML mapping");
+        }
+        apply(merged);
+    }
+
+    /**
+     * Publica los mensajes y compila sus plantillas.
+     *
+     * @param merged Los mensajes a publicar.
+     */
+    private void apply(Map<String, String> merged) {
+        Map<String, String> copy = new HashMap<>();
+        Map<String, MessageTemplate> compiled = new HashMap<>();
+        merged.forEach((key, message) -> {
+            copy.put(key, String.valueOf(message));
+            compiled.put(key, MessageTemplate.parse(String.valueOf(message)));
+        });
+        templates = Map.copyOf(compiled);
+        messages = Map.copyOf(copy);
+    }
+
+    /**
+     * Carga los mensajes predeterminados incluidos en el complemento.
+     *
+     * @param lang El código de idioma.
+     * @return Los mensajes predeterminados, o un mapa vacío si el recurso no existe.
+     */
+    private Map<String, String> loadDefaultMessages(String lang) {
+        try (InputStream resourceStream = getClass().getClassLoader().getResourceAsStream("messages_" + lang + ".yml")) {
+            if (resourceStream == null) {
+                return Map.of();
             }
+            Map<String, String> defaults = new Yaml().load(resourceStream);
+            return defaults == null ? Map.of() : defaults;
         } catch (IOException e) {
-            // Manejar la excepción o registrar el error
+            return Map.of();
         }
     }
 
@@ -50,11 +109,26 @@ public class MessageManager {
      * @return El mensaje formateado.
      */
     public String getMessage(String key, String... placeholders) {
-        String message = messages.getOrDefault(key, key);
-        for (int i = 0; i < placeholders.length - 1; i += 2) {
-            message = message.replace("{" + placeholders[i] + "}", placeholders[i + 1]);
-        }
-        return message;
+        MessageTemplate template = templates.get(key);
+        return template == null ? key : template.render(placeholders);
+    }
+
+    /**
+     * Devuelve una vista inmutable de los mensajes cargados.
+     *
+     * @return Un mapa inmutable de claves a mensajes.
+     */
+    public Map<String, String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Devuelve las plantillas precompiladas de los mensajes cargados.
+     *
+     * @return Un mapa inmutable de claves a plantillas.
+     */
+    public Map<String, MessageTemplate> getTemplates() {
+        return templates;
     }
 
     /**
@@ -0,0 +1,102 @@
+package com.otakusweeett.nobypass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message parsed once into literal segments and {placeholder} slots, so rendering is a
+ * handful of appends instead of one full string scan per placeholder.
+ */
+public final class MessageTemplate {
+
+    private final String source;
+    private final String[] literals;
+    private final String[] placeholders;
+
+    private MessageTemplate(String source, String[] literals, String[] placeholders) {
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Parses a message template.
+     *
+     * @param source The raw message, with placeholders written as {name}.
+     * @return The parsed template.
+     */
+    public static MessageTemplate parse(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int literalStart = 0;
+        int open = source.indexOf('{');
+        while (open >= 0) {
+            int close = source.indexOf('}', open + 1);
+            if (close < 0) {
+                break;
+            }
+            String name = source.substring(open + 1, close);
+            if (name.isEmpty() || name.indexOf('{') >= 0) {
+                open = source.indexOf('{', open + 1);
+                continue;
+            }
+            literals.add(source.substring(literalStart, open));
+            placeholders.add(name);
+            literalStart = close + 1;
+            open = source.indexOf('{', literalStart);
+        }
+        literals.add(source.substring(literalStart));
+        return new MessageTemplate(source, literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /**
+     * Checks if the template has no placeholders, meaning it always renders the same text.
+     *
+     * @return True if the template is static.
+     */
+    public boolean isStatic() {
+        return placeholders.length == 0;
+    }
+
+    /**
+     * Renders the template. Placeholders without a value are kept as written.
+     *
+     * @param values Key-value pairs to fill into the placeholders.
+     * @return The rendered message.
+     */
+    public String render(String... values) {
+        if (placeholders.length == 0) {
+            return source;
+        }
+
+        StringBuilder builder = new StringBuilder(source.length() + 32);
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(literals[i]);
+            String value = valueOf(placeholders[i], values);
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append('{').append(placeholders[i]).append('}');
+            }
+        }
+        return builder.append(literals[placeholders.length]).toString();
+    }
+
+    /**
+     * Gets the raw message this template was parsed from.
+     *
+     * @return The raw message.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    private static String valueOf(String placeholder, String[] values) {
+        for (int i = 0; i < values.length - 1; i += 2) {
+            if (placeholder.equals(values[i])) {
+                return values[i + 1];
+            }
+        }
+        return null;
+    }
+}
@@ -2,15 +2,20 @@ package com.otakusweeett.nobypass;
 
 import com.google.inject.Inject;
 import com.velocitypowered.api.command.CommandManager;
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.connection.LoginEvent;
+import com.velocitypowered.api.event.connection.PostLoginEvent;
+import com.velocitypowered.api.event.connection.PreLoginEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
+import com.velocitypowered.api.proxy.InboundConnection;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 
 import org.bstats.charts.AdvancedPie;
 import org.bstats.charts.MultiLineChart;
@@ -19,11 +24,17 @@ import org.bstats.charts.SingleLineChart;
 import org.bstats.velocity.Metrics;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Plugin(
         id = "nobypass",
@@ -34,15 +45,39 @@ import java.util.Set;
 )
 public class NoBypass {
 
-    private static final String PERMISSION_NOTIFY = "nobypass.notify";
+    private static final int WORKER_THREADS = 2;
+    private static final int WORKER_QUEUE_CAPACITY = 4096;
+    private static final int TOP_CAPACITY = 20;
+    private static final String UNKNOWN_DOMAIN = "unknown";
 
     private final Logger logger;
-    private final ConfigManager configManager;
-    private final MessageManager messageManager;
+    private final PolicyManager policyManager;
+    private final ConfigWatcher configWatcher;
     private final WebhookManager webhookManager;
-    private final ReservedUUIDManager reservedUUIDManager;
+    private final NotificationManager notificationManager;
+    private final BlockJournal blockJournal;
+    private final BlockLogger blockLogger;
+    private final ConnectionThrottle connectionThrottle = new ConnectionThrottle();
+    private final DenialCache denialCache = new DenialCache();
+    private final AttackMode attackMode = new AttackMode();
+    private final HeavyHitters<String> blockedDomains = new HeavyHitters<>(TOP_CAPACITY, HeavyHitters::hash);
+    private final HeavyHitters<InetAddress> blockedAddresses = new HeavyHitters<>(TOP_CAPACITY, HeavyHitters::hash);
+    private final DecisionTracer decisionTracer = new DecisionTracer();
+    private final ValidationMetrics validationMetrics = new ValidationMetrics();
     private final ProxyServer proxyServer;
     private final Metrics.Factory metricsFactory;
+    private final LongAdder rejectedSideEffects = new LongAdder();
+    private final ExecutorService workerPool = new ThreadPoolExecutor(
+            WORKER_THREADS, WORKER_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(WORKER_QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(runnable, "NoBypass-Worker");
+                thread.setDaemon(true);
+                return thread;
+            },
+            // Alerts, logs and webhooks are best effort; never let them back up onto the login path
+            (runnable, executor) -> rejectedSideEffects.increment()
+    );
 
     @Inject
     public NoBypass(Logger logger, ProxyServer proxyServer, CommandManager commandManager, @DataDirectory Path dataDirectory, Metrics.Factory metricsFactory) {
@@ -50,21 +85,41 @@ public class NoBypass {
         this.proxyServer = proxyServer;
         this.metricsFactory = metricsFactory;
 
-        // Load configuration and messages
-        this.configManager = new ConfigManager(dataDirectory);
-        this.messageManager = new MessageManager(dataDirectory, configManager.getLanguage());
-
-        // Initialize ReservedUUIDManager
-        this.reservedUUIDManager = new ReservedUUIDManager(messageManager);
-        this.reservedUUIDManager.loadReservedUUIDs(configManager.getReservedUUIDs());
+        // Load configuration and messages, from the compiled cache while their files are unchanged,
+        // then compile the first policy snapshot
+        ConfigCache cache;
+        try {
+            cache = ConfigCache.read(dataDirectory);
+        } catch (IOException e) {
+            logger.debug("Not using the configuration cache: {}", e.getMessage());
+            cache = null;
+        }
+        ConfigManager configManager = cache != null
+                ? new ConfigManager(dataDirectory, cache.getConfig())
+                : new ConfigManager(dataDirectory);
+        MessageManager messageManager = cache != null
+                ? new MessageManager(cache.getMessages())
+                : new MessageManager(dataDirectory, configManager.getLanguage());
+        this.policyManager = new PolicyManager(configManager, messageManager, dataDirectory, cache, logger);
+        this.configWatcher = new ConfigWatcher(dataDirectory, policyManager, logger);
 
         // Initialize WebhookManager
-        this.webhookManager = new WebhookManager(configManager.getWebhookConfig(), messageManager);
+        this.webhookManager = new WebhookManager(policyManager::current, dataDirectory.resolve("webhook-spool"), logger);
+
+        // Initialize NotificationManager
+        this.notificationManager = new NotificationManager(this, proxyServer, policyManager::current);
+
+        // Initialize BlockJournal
+        this.blockJournal = new BlockJournal(dataDirectory.resolve("journal"), logger);
 
-        // Register /nobypass reload command
+        // Initialize BlockLogger
+        this.blockLogger = new BlockLogger(logger);
+
+        // Register /nobypass command
         commandManager.register(
                 commandManager.metaBuilder("nobypass").build(),
-                new ReloadCommand(configManager, messageManager, webhookManager, reservedUUIDManager, logger)
+                new NoBypassCommand(this, policyManager, blockJournal, dataDirectory.resolve("traces"),
+                        task -> proxyServer.getScheduler().buildTask(this, task).schedule(), logger)
         );
 
         logger.info("NoBypass plugin loaded successfully!");
@@ -72,6 +127,30 @@ public class NoBypass {
 
 @Subscribe
 public void onProxyInitialization(ProxyInitializeEvent event) {
+    notificationManager.start();
+    configWatcher.start();
+    proxyServer.getScheduler().buildTask(this, connectionThrottle::evictIdle)
+            .repeat(1, TimeUnit.MINUTES)
+            .schedule();
+    proxyServer.getScheduler().buildTask(this, denialCache::evictExpired)
+            .repeat(1, TimeUnit.MINUTES)
+            .schedule();
+    proxyServer.getScheduler().buildTask(this, () -> blockLogger.flush(policyManager.current()))
+            .repeat(1, TimeUnit.SECONDS)
+            .schedule();
+    proxyServer.getScheduler().buildTask(this, this::updateAttackMode)
+            .repeat(1, TimeUnit.SECONDS)
+            .schedule();
+    proxyServer.getScheduler().buildTask(this, () -> policyManager.current().getRuleChain().reorder())
+            .repeat(10, TimeUnit.SECONDS)
+            .schedule();
+    proxyServer.getScheduler().buildTask(this, () -> {
+                blockedDomains.decay();
+                blockedAddresses.decay();
+            })
+            .repeat(10, TimeUnit.MINUTES)
+            .schedule();
+
     try {
         int pluginId = 24487; // Replace with your actual plugin ID
 
@@ -89,8 +168,27 @@ public void onProxyInitialization(ProxyInitializeEvent event) {
         // SimplePie: Server version
         metrics.addCustomChart(new SimplePie("server_version", () -> proxyServer.getVersion().getName()));
 
-
-
+        // AdvancedPie: Blocked connections by reason since the last submission
+        Map<String, Long> lastBlockReasons = new HashMap<>();
+        metrics.addCustomChart(new AdvancedPie("block_reasons", () -> {
+            Map<String, Integer> reasons = deltaSince(validationMetrics.getOutcomeCounts(), lastBlockReasons);
+            reasons.remove("allowed");
+            return reasons;
+        }));
+
+        // AdvancedPie: Most blocked virtual hosts; addresses stay local to /nobypass top
+        metrics.addCustomChart(new AdvancedPie("blocked_domains", () -> {
+            Map<String, Integer> domains = new HashMap<>();
+            for (HeavyHitters.Entry<String> entry : blockedDomains.getTop(10)) {
+                domains.put(entry.key(), (int) Math.min(Integer.MAX_VALUE, entry.count()));
+            }
+            return domains;
+        }));
+
+        // MultiLineChart: Login validation outcomes since the last submission
+        Map<String, Long> lastOutcomes = new HashMap<>();
+        metrics.addCustomChart(new MultiLineChart("validation_outcomes",
+                () -> deltaSince(validationMetrics.getOutcomeCounts(), lastOutcomes)));
 
     } catch (IllegalArgumentException e) {
         logger.error("Error initializing bStats Metrics: Invalid plugin ID or instance.", e);
@@ -99,88 +197,274 @@ public void onProxyInitialization(ProxyInitializeEvent event) {
     }
 }
 
-    
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent event) {
+        configWatcher.shutdown();
+        policyManager.shutdown();
+        workerPool.shutdown();
+        try {
+            workerPool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        blockLogger.flush();
+        webhookManager.shutdown();
+        blockJournal.close();
+    }
 
     @Subscribe
-    public void onPlayerLogin(LoginEvent event) {
-        if (!configManager.isEnabled()) {
+    public void onPostLogin(PostLoginEvent event) {
+        notificationManager.onJoin(event.getPlayer());
+    }
+
+    @Subscribe
+    public void onDisconnect(DisconnectEvent event) {
+        notificationManager.onQuit(event.getPlayer());
+    }
+
+    @Subscribe(async = false)
+    public void onPreLogin(PreLoginEvent event) {
+        Policy policy = policyManager.current();
+        if (!policy.isEnabled() || !event.getResult().isAllowed()) {
             return;
         }
 
+        long start = System.nanoTime();
+        InboundConnection connection = event.getConnection();
+        String virtualHost = getVirtualHost(connection);
+        InetAddress address = connection.getRemoteAddress().getAddress();
+        DecisionTracer.Trace trace = decisionTracer.start(policy, "pre-login", event.getUsername(), null, virtualHost, address);
+        try {
+            // Debug message
+            if (policy.isDebugEnabled() && virtualHost != null) {
+                workerPool.execute(() -> logDebug(policy, event.getUsername(), virtualHost));
+            }
+
+            // Refuse bad networks and unknown domains before the proxy spends time on encryption and session authentication
+            Rule denied = policy.getRuleChain().evaluate(Rule.Scope.PRE_LOGIN,
+                    event.getUsername(), null, virtualHost, address, trace);
+            if (denied != null) {
+                Component kickMessage = deny(policy, denied.getBlockReason(),
+                        event.getUsername(), null, virtualHost, address, trace);
+                event.setResult(PreLoginEvent.PreLoginComponentResult.denied(kickMessage));
+            }
+        } finally {
+            validationMetrics.getPreLoginLatency().record(System.nanoTime() - start);
+            decisionTracer.finish(trace, event.getResult().isAllowed() ? "allowed" : "denied");
+        }
+    }
+
+    @Subscribe(async = false)
+    public EventTask onPlayerLogin(LoginEvent event) {
+        // Read the policy once so the whole login is validated against a single snapshot
+        Policy policy = policyManager.current();
+        if (!policy.isEnabled()) {
+            return null;
+        }
+
         Player player = event.getPlayer();
-        String virtualHost = player.getVirtualHost()
-                                   .map(host -> host.getHostName().toLowerCase())
-                                   .orElse(null);
+        String virtualHost = getVirtualHost(player);
+
+        // The decision itself is cheap and runs inline; the login resumes as soon as the result is set
+        return EventTask.withContinuation(continuation -> {
+            long start = System.nanoTime();
+            DecisionTracer.Trace trace = decisionTracer.start(policy, "login", player.getUsername(),
+                    player.getUniqueId(), virtualHost, player.getRemoteAddress().getAddress());
+            try {
+                validatePlayer(policy, player, virtualHost, event, trace);
+            } finally {
+                validationMetrics.getLoginLatency().record(System.nanoTime() - start);
+                decisionTracer.finish(trace, event.getResult().isAllowed() ? "allowed" : "denied");
+                continuation.resume();
+            }
+        });
+    }
 
-        // Debug message
-        if (configManager.isDebugEnabled() && virtualHost != null) {
-            logDebug(player, virtualHost);
+    private void validatePlayer(Policy policy, Player player, String domain, LoginEvent event, DecisionTracer.Trace trace) {
+        // The domain was already checked at pre-login; the UUID is only known from here on
+        InetAddress address = player.getRemoteAddress().getAddress();
+        Rule denied = policy.getRuleChain().evaluate(Rule.Scope.LOGIN,
+                player.getUsername(), player.getUniqueId(), domain, address, trace);
+        if (denied == null) {
+            validationMetrics.recordAllowed();
+            return; // Player is valid
         }
 
-        // Validate domain and reserved UUID
-        validatePlayer(player, virtualHost, event);
+        Component kickMessage = deny(policy, denied.getBlockReason(),
+                player.getUsername(), player.getUniqueId(), domain, address, trace);
+        event.setResult(LoginEvent.ComponentResult.denied(kickMessage));
     }
 
-    private void validatePlayer(Player player, String domain, LoginEvent event) {
-        boolean isDomainValid = domain != null && getAllowedDomains().contains(domain.toLowerCase());
-        boolean isUUIDValid = reservedUUIDManager.isUUIDReserved(player.getUsername(), player.getUniqueId().toString());
+    private Component deny(Policy policy, BlockReason blockReason, String username, UUID uuid,
+                           String domain, InetAddress address, DecisionTracer.Trace trace) {
+        long denyStart = trace == null ? 0 : System.nanoTime();
+        attackMode.record();
+        blockedDomains.add(domain == null ? UNKNOWN_DOMAIN : domain);
+        if (address != null) {
+            blockedAddresses.add(address);
+        }
+        if (attackMode.isActive()) {
+            // During a wave every denial takes the cheapest path and is only counted for the summaries
+            validationMetrics.recordBlocked(blockReason);
+            blockLogger.count(blockReason, domain, address);
+            traceResponse(trace, "attack-mode", denyStart);
+            return policy.getAttackKick();
+        }
 
-        if (isDomainValid && isUUIDValid) {
-            return; // Player is valid
+        // Retries of a connection denied moments ago were already reported
+        if (denialCache.isRepeat(policy, address, domain, username)) {
+            validationMetrics.recordBlocked(blockReason);
+            traceResponse(trace, "repeat", denyStart);
+            return policy.getKickMessage(blockReason);
         }
 
-        // Determine the reason for denial
-        String reasonKey = !isDomainValid ? "reason-invalid-domain" : "reason-uuid-mismatch";
-        String kickMessageKey = !isDomainValid ? "kick-message" : "kick-reserved-uuid";
+        // Repeat offenders get the pre-built kick without alerts, logs or webhooks
+        if (!connectionThrottle.tryAcquire(address, policy)) {
+            validationMetrics.recordThrottled();
+            traceResponse(trace, "throttled", denyStart);
+            return policy.getThrottledKick();
+        }
+        validationMetrics.recordBlocked(blockReason);
 
-        String reason = messageManager.getMessage(reasonKey);
-        Component kickMessage = deserializeMessage(kickMessageKey, "reason", reason);
+        long timestamp = System.currentTimeMillis();
+        String reason = policy.getReason(blockReason);
+        workerPool.execute(() -> reportBlock(policy, timestamp, blockReason, username, uuid, domain, address, reason));
+        traceResponse(trace, "reported", denyStart);
+        return policy.getKickMessage(blockReason);
+    }
 
-        event.setResult(LoginEvent.ComponentResult.denied(kickMessage));
+    private static void traceResponse(DecisionTracer.Trace trace, String response, long start) {
+        if (trace != null) {
+            trace.step("response", response, System.nanoTime() - start);
+        }
+    }
+
+    private void reportBlock(Policy policy, long timestamp, BlockReason blockReason,
+                             String username, UUID uuid, String domain, InetAddress address, String reason) {
+        blockJournal.append(timestamp, address, username, domain, blockReason);
 
         // Notify players with permission
-        Component alertMessage = deserializeMessage(
+        Component alertMessage = policy.getComponent(
                 "alert-message",
-                "username", player.getUsername(),
+                "username", username,
                 "domain", domain == null ? "unknown" : domain,
                 "reason", reason
         );
-        proxyServer.getAllPlayers().stream()
-                .filter(p -> p.hasPermission(PERMISSION_NOTIFY))
-                .forEach(p -> p.sendMessage(alertMessage));
-
-        // Log the block
-        logger.info("Connection blocked for player '{}' (UUID: {}) using '{}'. Reason: {}",
-                player.getUsername(),
-                player.getUniqueId(),
-                domain == null ? "unknown" : domain,
-                reason
-        );
+        notificationManager.alert(alertMessage);
+
+        // Log the block, or count it towards the next summary during a wave
+        blockLogger.log(policy, blockReason, username, uuid, domain, address, reason);
 
         // Send webhook notification if enabled
-        if (configManager.getWebhookConfig().getOrDefault("enabled", false).equals(true)) {
-            String skinUrl = "https://minotar.net/avatar/" + player.getUniqueId();
+        if (policy.isWebhookEnabled()) {
+            String skinUrl = "https://minotar.net/avatar/" + (uuid == null ? username : uuid);
             webhookManager.sendBlockedConnection(
-                    player.getUsername(),
+                    username,
                     domain == null ? "unknown" : domain,
-                    player.getRemoteAddress().getAddress().getHostAddress(),
+                    address == null ? "unknown" : address.getHostAddress(),
                     reason,
                     skinUrl
             );
         }
     }
 
-    private void logDebug(Player player, String domain) {
-        Component debugMessage = deserializeMessage("debug-message", "username", player.getUsername(), "domain", domain == null ? "unknown" : domain);
+    private void updateAttackMode() {
+        Policy policy = policyManager.current();
+        AttackMode.Transition transition = attackMode.update(policy);
+        if (transition == AttackMode.Transition.STARTED) {
+            String rate = String.format("%.0f", attackMode.getRate(policy.getAttackWindowSeconds()));
+            logger.warn("Attack mode enabled: {} blocked connections per second. Blocked connections are summarized until the rate drops.", rate);
+            announce(policy, "attack-mode-started", "rate", rate);
+        } else if (transition == AttackMode.Transition.ENDED) {
+            String count = String.valueOf(attackMode.getAttackDenials());
+            String seconds = String.valueOf(attackMode.getAttackSeconds());
+            logger.info("Attack mode disabled after {}s and {} blocked connections.", seconds, count);
+            announce(policy, "attack-mode-ended", "count", count, "seconds", seconds);
+        } else {
+            long count = attackMode.takeSummary(policy.getLogSummaryIntervalSeconds());
+            if (count >= 0) {
+                announce(policy, "attack-mode-summary",
+                        "count", String.valueOf(count), "seconds", String.valueOf(policy.getLogSummaryIntervalSeconds()));
+            }
+        }
+    }
+
+    private void announce(Policy policy, String key, String... placeholders) {
+        notificationManager.alert(policy.getComponent("alert-" + key, placeholders));
+        if (policy.isWebhookEnabled()) {
+            webhookManager.sendNotice(policy.getMessage("webhook-attack-mode-title"), policy.getMessage("webhook-" + key, placeholders));
+        }
+    }
+
+    public ValidationMetrics getValidationMetrics() {
+        return validationMetrics;
+    }
+
+    public WebhookManager getWebhookManager() {
+        return webhookManager;
+    }
+
+    public ConnectionThrottle getConnectionThrottle() {
+        return connectionThrottle;
+    }
+
+    public DenialCache getDenialCache() {
+        return denialCache;
+    }
+
+    public AttackMode getAttackMode() {
+        return attackMode;
+    }
+
+    /**
+     * Gets the virtual hosts with the most blocked connections recently.
+     *
+     * @return The heavy hitter tracker of blocked domains.
+     */
+    public HeavyHitters<String> getBlockedDomains() {
+        return blockedDomains;
+    }
+
+    /**
+     * Gets the addresses with the most blocked connections recently.
+     *
+     * @return The heavy hitter tracker of blocked addresses.
+     */
+    public HeavyHitters<InetAddress> getBlockedAddresses() {
+        return blockedAddresses;
+    }
+
+    public DecisionTracer getDecisionTracer() {
+        return decisionTracer;
+    }
+
+    /**
+     * Gets the number of alert, log and webhook tasks dropped because the worker queue was full.
+     *
+     * @return The rejected task count.
+     */
+    public long getRejectedSideEffects() {
+        return rejectedSideEffects.sum();
+    }
+
+    private void logDebug(Policy policy, String username, String domain) {
+        Component debugMessage = policy.getComponent("debug-message", "username", username, "domain", domain == null ? "unknown" : domain);
         logger.info(debugMessage.toString());
     }
 
-    private Set<String> getAllowedDomains() {
-        return new HashSet<>(configManager.getAllowedDomains());
+    private static Map<String, Integer> deltaSince(Map<String, Long> current, Map<String, Long> previous) {
+        Map<String, Integer> deltas = new HashMap<>();
+        current.forEach((key, value) -> {
+            long delta = value - previous.getOrDefault(key, 0L);
+            previous.put(key, value);
+            deltas.put(key, (int) Math.min(Integer.MAX_VALUE, delta));
+        });
+        return deltas;
     }
 
-    private Component deserializeMessage(String key, String... placeholders) {
-        String message = messageManager.getMessage(key, placeholders);
-        return LegacyComponentSerializer.legacyAmpersand().deserialize(message);
+    private static String getVirtualHost(InboundConnection connection) {
+        return connection.getVirtualHost()
+                .map(host -> host.getHostString().toLowerCase())
+                .orElse(null);
     }
 }
@@ -0,0 +1,281 @@
+package com.otakusweeett.nobypass;
+
+import com.velocitypowered.api.command.CommandSource;
+import com.velocitypowered.api.command.SimpleCommand;
+import net.kyori.adventure.text.Component;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class NoBypassCommand implements SimpleCommand {
+
+    private static final List<String> SUBCOMMANDS = List.of("reload", "history", "stats", "top", "trace");
+    private static final int HISTORY_LIMIT = 20;
+    private static final int TOP_LIMIT = 10;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+
+    private final NoBypass plugin;
+    private final PolicyManager policyManager;
+    private final BlockJournal blockJournal;
+    private final Path traceDirectory;
+    private final Executor executor;
+    private final Logger logger;
+
+    /**
+     * Creates the /nobypass command.
+     *
+     * @param plugin         The plugin, for its statistics.
+     * @param policyManager  The policy manager, for reloads and messages.
+     * @param blockJournal   The journal queried by the history subcommand.
+     * @param traceDirectory The directory decision traces are dumped to.
+     * @param executor       Runs subcommands that read or write files, off the command thread.
+     * @param logger         The plugin logger.
+     */
+    public NoBypassCommand(NoBypass plugin, PolicyManager policyManager, BlockJournal blockJournal,
+                           Path traceDirectory, Executor executor, Logger logger) {
+        this.plugin = plugin;
+        this.policyManager = policyManager;
+        this.blockJournal = blockJournal;
+        this.traceDirectory = traceDirectory;
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    @Override
+    public void execute(Invocation invocation) {
+        String[] args = invocation.arguments();
+        String subcommand = args.length == 0 ? "reload" : args[0].toLowerCase(Locale.ROOT);
+
+        switch (subcommand) {
+            case "reload" -> reload(invocation.source());
+            case "history" -> history(invocation.source(), args);
+            case "stats" -> stats(invocation.source());
+            case "top" -> top(invocation.source());
+            case "trace" -> trace(invocation.source(), args);
+            default -> send(invocation.source(), "invalid-command");
+        }
+    }
+
+    @Override
+    public List<String> suggest(Invocation invocation) {
+        String[] args = invocation.arguments();
+        if (args.length == 2 && args[0].equalsIgnoreCase("trace")) {
+            return "dump".startsWith(args[1].toLowerCase(Locale.ROOT)) ? List.of("dump") : List.of();
+        }
+        if (args.length > 1) {
+            return List.of();
+        }
+        String prefix = args.length == 0 ? "" : args[0].toLowerCase(Locale.ROOT);
+        return SUBCOMMANDS.stream().filter(subcommand -> subcommand.startsWith(prefix)).toList();
+    }
+
+    private void reload(CommandSource source) {
+        if (!checkPermission(source, "nobypass.reload")) {
+            return;
+        }
+
+        // Parse and compile off the command thread; logins keep using the previous policy until it is published
+        policyManager.reload().whenComplete((policy, error) -> {
+            if (error != null) {
+                // The policy manager already logged why the new configuration was rejected
+                Throwable cause = error.getCause() == null ? error : error.getCause();
+                send(source, "reload-failed", "error", String.valueOf(cause.getMessage()));
+                return;
+            }
+
+            source.sendMessage(Component.text(policy.getMessage("reload-success")));
+        });
+    }
+
+    private void history(CommandSource source, String[] args) {
+        if (!checkPermission(source, "nobypass.history")) {
+            return;
+        }
+        if (args.length < 2) {
+            send(source, "history-usage");
+            return;
+        }
+
+        String target = args[1].toLowerCase(Locale.ROOT);
+        long minutes = 60;
+        if (args.length > 2) {
+            try {
+                minutes = Math.max(1, Long.parseLong(args[2]));
+            } catch (NumberFormatException e) {
+                send(source, "history-usage");
+                return;
+            }
+        }
+
+        long since = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutes);
+        String window = String.valueOf(minutes);
+        // Anything that is not strictly an address literal is a domain, so this never resolves a host name
+        InetAddress address = AddressMatcher.parseLiteral(target);
+        String domain = address == null ? target : null;
+        runAsync(source, "history", () -> {
+            List<BlockJournal.Entry> entries;
+            try {
+                entries = blockJournal.query(address, domain, since, HISTORY_LIMIT);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read the block journal", e);
+            }
+
+            if (entries.isEmpty()) {
+                send(source, "history-empty", "target", target, "minutes", window);
+                return;
+            }
+            send(source, "history-header", "target", target, "minutes", window, "count", String.valueOf(entries.size()));
+            Policy policy = policyManager.current();
+            for (BlockJournal.Entry entry : entries) {
+                send(source, "history-entry",
+                        "time", TIME_FORMAT.format(Instant.ofEpochMilli(entry.timestamp())),
+                        "username", entry.username(),
+                        "ip", entry.address() == null ? "unknown" : entry.address().getHostAddress(),
+                        "domain", entry.domain(),
+                        "reason", entry.reason() == null ? "unknown" : policy.getReason(entry.reason()));
+            }
+        });
+    }
+
+    private void stats(CommandSource source) {
+        if (!checkPermission(source, "nobypass.stats")) {
+            return;
+        }
+
+        ValidationMetrics metrics = plugin.getValidationMetrics();
+        send(source, "stats-header");
+        metrics.getOutcomeCounts().forEach((outcome, count) ->
+                send(source, "stats-outcome", "outcome", outcome, "count", String.valueOf(count)));
+        sendLatency(source, "pre-login", metrics.getPreLoginLatency());
+        sendLatency(source, "login", metrics.getLoginLatency());
+
+        WebhookManager webhook = plugin.getWebhookManager();
+        send(source, "stats-webhook",
+                "sent", String.valueOf(webhook.getSentCount()),
+                "failed", String.valueOf(webhook.getFailedCount()),
+                "dropped", String.valueOf(webhook.getDroppedCount()),
+                "rate-limited", String.valueOf(webhook.getRateLimitedCount()),
+                "queued", String.valueOf(webhook.getQueueDepth()));
+        send(source, "stats-workers",
+                "rejected", String.valueOf(plugin.getRejectedSideEffects()),
+                "tracked", String.valueOf(plugin.getConnectionThrottle().getTrackedAddresses()));
+
+        DenialCache denialCache = plugin.getDenialCache();
+        send(source, "stats-denial-cache",
+                "hits", String.valueOf(denialCache.getHits()),
+                "ratio", String.format(Locale.ROOT, "%.1f", denialCache.getHitRatio() * 100),
+                "size", String.valueOf(denialCache.size()));
+
+        for (RuleChain.RuleStats rule : policyManager.current().getRuleChain().getStats()) {
+            send(source, "stats-rule",
+                    "stage", rule.rule().getScope().name().toLowerCase(Locale.ROOT).replace('_', '-'),
+                    "position", String.valueOf(rule.position()),
+                    "rule", rule.rule().getName(),
+                    "cost", String.valueOf(rule.rule().getCost()),
+                    "evaluated", String.valueOf(rule.evaluated()),
+                    "denied", String.valueOf(rule.denied()));
+        }
+    }
+
+    private void top(CommandSource source) {
+        if (!checkPermission(source, "nobypass.stats")) {
+            return;
+        }
+
+        send(source, "top-domains-header");
+        sendTop(source, plugin.getBlockedDomains().getTop(TOP_LIMIT), domain -> domain);
+        send(source, "top-ips-header");
+        sendTop(source, plugin.getBlockedAddresses().getTop(TOP_LIMIT), InetAddress::getHostAddress);
+    }
+
+    private <T> void sendTop(CommandSource source, List<HeavyHitters.Entry<T>> entries, Function<T, String> format) {
+        if (entries.isEmpty()) {
+            send(source, "top-empty");
+            return;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            send(source, "top-entry",
+                    "rank", String.valueOf(i + 1),
+                    "key", format.apply(entries.get(i).key()),
+                    "count", String.valueOf(entries.get(i).count()));
+        }
+    }
+
+    private void trace(CommandSource source, String[] args) {
+        if (!checkPermission(source, "nobypass.trace")) {
+            return;
+        }
+        if (args.length < 2 || !args[1].equalsIgnoreCase("dump")) {
+            send(source, "trace-usage");
+            return;
+        }
+
+        runAsync(source, "trace", () -> {
+            Path file;
+            try {
+                file = plugin.getDecisionTracer().dump(traceDirectory);
+            } catch (IOException e) {
+                logger.warn("Unable to write the decision traces to {}.", traceDirectory, e);
+                send(source, "trace-failed", "error", String.valueOf(e.getMessage()));
+                return;
+            }
+            if (file == null) {
+                send(source, "trace-empty");
+                return;
+            }
+            send(source, "trace-dumped", "file", file.toString(),
+                    "count", String.valueOf(plugin.getDecisionTracer().getTraceCount()));
+        });
+    }
+
+    /**
+     * Runs a subcommand on the executor and tells the sender if it fails unexpectedly.
+     */
+    private void runAsync(CommandSource source, String subcommand, Runnable task) {
+        CompletableFuture.runAsync(task, executor).exceptionally(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            logger.warn("The /nobypass {} command failed.", subcommand, cause);
+            send(source, "command-failed", "error", String.valueOf(cause.getMessage()));
+            return null;
+        });
+    }
+
+    private void sendLatency(CommandSource source, String stage, LatencyHistogram histogram) {
+        send(source, "stats-latency",
+                "stage", stage,
+                "p50", micros(histogram.getPercentile(50)),
+                "p99", micros(histogram.getPercentile(99)),
+                "p999", micros(histogram.getPercentile(99.9)),
+                "count", String.valueOf(histogram.getCount()));
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+
+    private boolean checkPermission(CommandSource source, String permission) {
+        if (source.hasPermission(permission)) {
+            return true;
+        }
+        send(source, "no-permission");
+        return false;
+    }
+
+    private void send(CommandSource source, String key, String... placeholders) {
+        source.sendMessage(policyManager.current().getComponent(key, placeholders));
+    }
+}
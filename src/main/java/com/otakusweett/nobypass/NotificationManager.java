@@ -0,0 +1,129 @@
+package com.otakusweeett.nobypass;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import net.kyori.adventure.text.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class NotificationManager {
+
+    private static final String PERMISSION_NOTIFY = "nobypass.notify";
+    private static final long ALERT_WINDOW_SECONDS = 2;
+    private static final long REFRESH_SECONDS = 30;
+    private static final int MAX_DETAILED_ALERTS = 3;
+
+    private final Object plugin;
+    private final ProxyServer proxyServer;
+    private final Supplier<Policy> policySupplier;
+    private final Set<Player> recipients = ConcurrentHashMap.newKeySet();
+    private final Queue<Component> pendingAlerts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    public NotificationManager(Object plugin, ProxyServer proxyServer, Supplier<Policy> policySupplier) {
+        this.plugin = plugin;
+        this.proxyServer = proxyServer;
+        this.policySupplier = policySupplier;
+    }
+
+    /**
+     * Starts the alert flush and permission refresh tasks.
+     */
+    public void start() {
+        refreshRecipients();
+        proxyServer.getScheduler().buildTask(plugin, this::flushAlerts)
+                .repeat(ALERT_WINDOW_SECONDS, TimeUnit.SECONDS)
+                .schedule();
+        // Velocity has no permission change event, so pick up granted or revoked permissions periodically
+        proxyServer.getScheduler().buildTask(plugin, this::refreshRecipients)
+                .repeat(REFRESH_SECONDS, TimeUnit.SECONDS)
+                .schedule();
+    }
+
+    /**
+     * Adds a player to the recipients if they have the notify permission.
+     *
+     * @param player The player who joined.
+     */
+    public void onJoin(Player player) {
+        if (player.hasPermission(PERMISSION_NOTIFY)) {
+            recipients.add(player);
+        }
+    }
+
+    /**
+     * Removes a player from the recipients.
+     *
+     * @param player The player who left.
+     */
+    public void onQuit(Player player) {
+        recipients.remove(player);
+    }
+
+    /**
+     * Queues an alert for staff. Alerts are delivered asynchronously once per window;
+     * when too many arrive in one window they are replaced by a single summary line.
+     *
+     * @param alert The alert message.
+     */
+    public void alert(Component alert) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        if (pendingCount.incrementAndGet() <= MAX_DETAILED_ALERTS) {
+            pendingAlerts.add(alert);
+        }
+    }
+
+    /**
+     * Gets the number of online players receiving alerts.
+     *
+     * @return The recipient count.
+     */
+    public int getRecipientCount() {
+        return recipients.size();
+    }
+
+    private void flushAlerts() {
+        int count = pendingCount.getAndSet(0);
+        List<Component> alerts = new ArrayList<>();
+        Component alert;
+        while ((alert = pendingAlerts.poll()) != null) {
+            alerts.add(alert);
+        }
+        if (count == 0 && alerts.isEmpty()) {
+            return;
+        }
+
+        if (count > MAX_DETAILED_ALERTS) {
+            alerts = List.of(policySupplier.get().getComponent("alert-summary",
+                    "count", String.valueOf(count),
+                    "seconds", String.valueOf(ALERT_WINDOW_SECONDS)));
+        }
+
+        for (Player recipient : recipients) {
+            for (Component message : alerts) {
+                recipient.sendMessage(message);
+            }
+        }
+    }
+
+    private void refreshRecipients() {
+        for (Player player : proxyServer.getAllPlayers()) {
+            if (player.hasPermission(PERMISSION_NOTIFY)) {
+                recipients.add(player);
+            } else {
+                recipients.remove(player);
+            }
+        }
+        recipients.removeIf(player -> !player.isActive());
+    }
+}
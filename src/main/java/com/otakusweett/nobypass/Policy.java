@@ -0,0 +1,523 @@
+package com.otakusweeett.nobypass;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class Policy {
+
+    private final boolean enabled;
+    private final boolean debug;
+    private final boolean autoReload;
+    private final DomainMatcher allowedDomains;
+    private final ReservedUUIDManager reservedUUIDs;
+    private final AddressMatcher addressRules;
+    private final RuleChain ruleChain;
+    private final boolean webhookEnabled;
+    private final String webhookUrl;
+    private final int webhookColor;
+    private final boolean throttleEnabled;
+    private final int throttleAttemptsPerMinute;
+    private final int throttleBurst;
+    private final boolean denialCacheEnabled;
+    private final int denialCacheTtlSeconds;
+    private final int denialCacheMaxEntries;
+    private final int logLinesPerSecond;
+    private final int logSummaryIntervalSeconds;
+    private final boolean attackModeEnabled;
+    private final int attackEnterRate;
+    private final int attackExitRate;
+    private final int attackWindowSeconds;
+    private final int attackCooldownSeconds;
+    private final int traceSampleOneIn;
+    private final int traceBufferSize;
+    private final String sharingMode;
+    private final Path sharedPolicyFile;
+    private final int sharedPolicyPollSeconds;
+    private final long snapshotVersion;
+    private final Map<String, MessageTemplate> templates;
+    private final Map<String, Component> staticComponents;
+    private final Map<BlockReason, String> reasons = new EnumMap<>(BlockReason.class);
+    private final Map<BlockReason, Component> kickMessages = new EnumMap<>(BlockReason.class);
+    private final Component throttledKick;
+    private final Component attackKick;
+
+    private Policy(boolean enabled, boolean debug, boolean autoReload, DomainMatcher allowedDomains,
+                   ReservedUUIDManager reservedUUIDs, AddressMatcher addressRules,
+                   boolean webhookEnabled, String webhookUrl, int webhookColor,
+                   boolean throttleEnabled, int throttleAttemptsPerMinute, int throttleBurst,
+                   boolean denialCacheEnabled, int denialCacheTtlSeconds, int denialCacheMaxEntries,
+                   int logLinesPerSecond, int logSummaryIntervalSeconds,
+                   boolean attackModeEnabled, int attackEnterRate, int attackExitRate,
+                   int attackWindowSeconds, int attackCooldownSeconds,
+                   int traceSampleOneIn, int traceBufferSize,
+                   String sharingMode, Path sharedPolicyFile, int sharedPolicyPollSeconds,
+                   Map<String, MessageTemplate> templates) {
+        this.enabled = enabled;
+        this.debug = debug;
+        this.autoReload = autoReload;
+        this.allowedDomains = allowedDomains;
+        this.reservedUUIDs = reservedUUIDs;
+        this.addressRules = addressRules;
+        this.ruleChain = compileRuleChain(allowedDomains, reservedUUIDs, addressRules);
+        this.webhookEnabled = webhookEnabled;
+        this.webhookUrl = webhookUrl;
+        this.webhookColor = webhookColor;
+        this.throttleEnabled = throttleEnabled;
+        this.throttleAttemptsPerMinute = throttleAttemptsPerMinute;
+        this.throttleBurst = throttleBurst;
+        this.denialCacheEnabled = denialCacheEnabled;
+        this.denialCacheTtlSeconds = denialCacheTtlSeconds;
+        this.denialCacheMaxEntries = denialCacheMaxEntries;
+        this.logLinesPerSecond = logLinesPerSecond;
+        this.logSummaryIntervalSeconds = logSummaryIntervalSeconds;
+        this.attackModeEnabled = attackModeEnabled;
+        this.attackEnterRate = attackEnterRate;
+        this.attackExitRate = attackExitRate;
+        this.attackWindowSeconds = attackWindowSeconds;
+        this.attackCooldownSeconds = attackCooldownSeconds;
+        this.traceSampleOneIn = traceSampleOneIn;
+        this.traceBufferSize = traceBufferSize;
+        this.sharingMode = sharingMode;
+        this.sharedPolicyFile = sharedPolicyFile;
+        this.sharedPolicyPollSeconds = sharedPolicyPollSeconds;
+        this.snapshotVersion = -1;
+        this.templates = templates;
+
+        // Messages without placeholders always render the same, so deserialize them once
+        Map<String, Component> components = new HashMap<>();
+        templates.forEach((key, template) -> {
+            if (template.isStatic()) {
+                components.put(key, deserialize(template.getSource()));
+            }
+        });
+        this.staticComponents = Map.copyOf(components);
+
+        // Kick messages only depend on the reason, which is static too
+        for (BlockReason reason : BlockReason.values()) {
+            String reasonText = getMessage(reason.getMessageKey());
+            reasons.put(reason, reasonText);
+            kickMessages.put(reason, deserialize(getMessage(reason.getKickMessageKey(), "reason", reasonText)));
+        }
+        this.throttledKick = getComponent("kick-throttled");
+        this.attackKick = getComponent("kick-attack-mode");
+    }
+
+    private Policy(Policy base, DomainMatcher allowedDomains, ReservedUUIDManager reservedUUIDs,
+                   AddressMatcher addressRules, long snapshotVersion) {
+        this.enabled = base.enabled;
+        this.debug = base.debug;
+        this.autoReload = base.autoReload;
+        this.allowedDomains = allowedDomains;
+        this.reservedUUIDs = reservedUUIDs;
+        this.addressRules = addressRules;
+        this.ruleChain = compileRuleChain(allowedDomains, reservedUUIDs, addressRules);
+        this.webhookEnabled = base.webhookEnabled;
+        this.webhookUrl = base.webhookUrl;
+        this.webhookColor = base.webhookColor;
+        this.throttleEnabled = base.throttleEnabled;
+        this.throttleAttemptsPerMinute = base.throttleAttemptsPerMinute;
+        this.throttleBurst = base.throttleBurst;
+        this.denialCacheEnabled = base.denialCacheEnabled;
+        this.denialCacheTtlSeconds = base.denialCacheTtlSeconds;
+        this.denialCacheMaxEntries = base.denialCacheMaxEntries;
+        this.logLinesPerSecond = base.logLinesPerSecond;
+        this.logSummaryIntervalSeconds = base.logSummaryIntervalSeconds;
+        this.attackModeEnabled = base.attackModeEnabled;
+        this.attackEnterRate = base.attackEnterRate;
+        this.attackExitRate = base.attackExitRate;
+        this.attackWindowSeconds = base.attackWindowSeconds;
+        this.attackCooldownSeconds = base.attackCooldownSeconds;
+        this.traceSampleOneIn = base.traceSampleOneIn;
+        this.traceBufferSize = base.traceBufferSize;
+        this.sharingMode = base.sharingMode;
+        this.sharedPolicyFile = base.sharedPolicyFile;
+        this.sharedPolicyPollSeconds = base.sharedPolicyPollSeconds;
+        this.snapshotVersion = snapshotVersion;
+        this.templates = base.templates;
+        this.staticComponents = base.staticComponents;
+        this.reasons.putAll(base.reasons);
+        this.kickMessages.putAll(base.kickMessages);
+        this.throttledKick = base.throttledKick;
+        this.attackKick = base.attackKick;
+    }
+
+    /**
+     * Creates a copy of this policy that uses the domain rules and reserved UUIDs of a shared snapshot.
+     * Everything else, including messages, is kept.
+     *
+     * @param snapshot The shared snapshot.
+     * @return A new policy snapshot.
+     */
+    public Policy withSharedRules(PolicySnapshot snapshot) {
+        return new Policy(this, snapshot.getAllowedDomains(), snapshot.getReservedUUIDs(),
+                snapshot.getAddressRules(), snapshot.getVersion());
+    }
+
+    /**
+     * Creates a copy of this policy that keeps using the shared rules of another policy, for when
+     * the shared snapshot is temporarily unreadable.
+     *
+     * @param shared The policy whose shared rules are kept.
+     * @return A new policy snapshot.
+     */
+    public Policy withSharedRules(Policy shared) {
+        return new Policy(this, shared.allowedDomains, shared.reservedUUIDs, shared.addressRules, shared.snapshotVersion);
+    }
+
+    /**
+     * Compiles an immutable policy from the currently loaded configuration and messages.
+     *
+     * @param configManager  The loaded configuration.
+     * @param messageManager The loaded messages.
+     * @return A new policy snapshot.
+     * @throws IllegalArgumentException If the configuration has missing or invalid values.
+     */
+    public static Policy compile(ConfigManager configManager, MessageManager messageManager) {
+        return compile(configManager, messageManager, null);
+    }
+
+    /**
+     * Compiles an immutable policy from the currently loaded configuration and messages, reusing
+     * already compiled domain rules, reserved UUIDs and address ranges if given.
+     *
+     * @param configManager  The loaded configuration.
+     * @param messageManager The loaded messages.
+     * @param rules          The rules compiled from the same configuration, such as those of the
+     *                       configuration cache, or null to compile them.
+     * @return A new policy snapshot.
+     * @throws IllegalArgumentException If the configuration has missing or invalid values.
+     */
+    public static Policy compile(ConfigManager configManager, MessageManager messageManager, PolicySnapshot rules) {
+        try {
+            Map<String, Object> webhookConfig = configManager.getWebhookConfig();
+            Object url = webhookConfig.getOrDefault("url", "");
+            Map<String, Object> throttleConfig = configManager.getThrottleConfig();
+            Map<String, Object> denialCacheConfig = configManager.getDenialCacheConfig();
+            Map<String, Object> loggingConfig = configManager.getLoggingConfig();
+            Map<String, Object> attackConfig = configManager.getAttackModeConfig();
+            Map<String, Object> traceConfig = configManager.getTraceConfig();
+            Map<String, Object> sharingConfig = configManager.getSharedPolicyConfig();
+
+            // YAML reads an unquoted off as false
+            Object mode = sharingConfig.getOrDefault("mode", "off");
+            String sharingMode = Boolean.FALSE.equals(mode) ? "off" : String.valueOf(mode).toLowerCase();
+            if (!sharingMode.equals("off") && !sharingMode.equals("publish") && !sharingMode.equals("follow")) {
+                throw new IllegalArgumentException("shared-policy.mode must be off, publish or follow");
+            }
+            Path sharedPolicyFile = configManager.getSharedPolicyFile();
+            if (!sharingMode.equals("off") && sharedPolicyFile == null) {
+                throw new IllegalArgumentException("shared-policy.file must be set when shared-policy.mode is " + sharingMode);
+            }
+
+            DomainMatcher allowedDomains = rules != null
+                    ? rules.getAllowedDomains()
+                    : DomainMatcher.compile(configManager.getAllowedDomains());
+            if (allowedDomains.size() == 0) {
+                throw new IllegalArgumentException("allowed-domains has no valid entries; every connection would be blocked");
+            }
+            if (configManager.isWebhookEnabled() && (url == null || url.toString().isBlank())) {
+                throw new IllegalArgumentException("webhook.url must be set when the webhook is enabled");
+            }
+            int attackEnterRate = Math.max(1, ((Number) attackConfig.getOrDefault("enter-rate", 50)).intValue());
+            int attackExitRate = Math.max(0, ((Number) attackConfig.getOrDefault("exit-rate", 10)).intValue());
+            if (attackExitRate >= attackEnterRate) {
+                throw new IllegalArgumentException("attack-mode.exit-rate must be lower than attack-mode.enter-rate");
+            }
+
+            return new Policy(
+                    configManager.isEnabled(),
+                    configManager.isDebugEnabled(),
+                    configManager.isAutoReloadEnabled(),
+                    allowedDomains,
+                    rules != null
+                            ? rules.getReservedUUIDs()
+                            : new ReservedUUIDManager(configManager.getReservedUUIDs(), configManager.getReservedUUIDFile()),
+                    rules != null ? rules.getAddressRules() : compileAddressRules(configManager),
+                    configManager.isWebhookEnabled(),
+                    url == null ? "" : url.toString(),
+                    ((Number) webhookConfig.getOrDefault("color", 16711680)).intValue(),
+                    (boolean) throttleConfig.getOrDefault("enabled", true),
+                    Math.max(1, ((Number) throttleConfig.getOrDefault("attempts-per-minute", 10)).intValue()),
+                    Math.max(1, ((Number) throttleConfig.getOrDefault("burst", 5)).intValue()),
+                    (boolean) denialCacheConfig.getOrDefault("enabled", true),
+                    Math.max(1, ((Number) denialCacheConfig.getOrDefault("ttl-seconds", 60)).intValue()),
+                    Math.max(16, ((Number) denialCacheConfig.getOrDefault("max-entries", 10000)).intValue()),
+                    Math.max(0, ((Number) loggingConfig.getOrDefault("max-lines-per-second", 5)).intValue()),
+                    Math.max(1, ((Number) loggingConfig.getOrDefault("summary-interval-seconds", 10)).intValue()),
+                    (boolean) attackConfig.getOrDefault("enabled", true),
+                    attackEnterRate,
+                    attackExitRate,
+                    Math.min(AttackMode.MAX_WINDOW_SECONDS - 1, Math.max(1, ((Number) attackConfig.getOrDefault("window-seconds", 10)).intValue())),
+                    Math.max(0, ((Number) attackConfig.getOrDefault("cooldown-seconds", 30)).intValue()),
+                    Math.max(0, ((Number) traceConfig.getOrDefault("sample-one-in", 100)).intValue()),
+                    Math.min(DecisionTracer.MAX_BUFFER_SIZE, Math.max(16, ((Number) traceConfig.getOrDefault("buffer-size", 1024)).intValue())),
+                    sharingMode,
+                    sharedPolicyFile,
+                    Math.max(1, ((Number) sharingConfig.getOrDefault("poll-interval-seconds", 5)).intValue()),
+                    messageManager.getTemplates()
+            );
+        } catch (ClassCastException | NullPointerException e) {
+            throw new IllegalArgumentException("config.yml has a missing or wrongly typed value: " + e.getMessage(), e);
+        }
+    }
+
+    private static RuleChain compileRuleChain(DomainMatcher allowedDomains, ReservedUUIDManager reservedUUIDs,
+                                              AddressMatcher addressRules) {
+        return new RuleChain(List.of(
+                new AddressRule(addressRules),
+                new DomainRule(allowedDomains),
+                new ReservedUUIDRule(reservedUUIDs)
+        ));
+    }
+
+    private static AddressMatcher compileAddressRules(ConfigManager configManager) {
+        List<String> denied = new ArrayList<>(configManager.getDeniedCidrs());
+        Path file = configManager.getDeniedCidrsFile();
+        if (file != null) {
+            try {
+                for (String line : Files.readAllLines(file)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        denied.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to read denied-cidrs-file " + file + ": " + e.getMessage(), e);
+            }
+        }
+        return AddressMatcher.compile(configManager.getAllowedCidrs(), denied);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isDebugEnabled() {
+        return debug;
+    }
+
+    public boolean isAutoReloadEnabled() {
+        return autoReload;
+    }
+
+    public boolean isDenialCacheEnabled() {
+        return denialCacheEnabled;
+    }
+
+    public int getDenialCacheTtlSeconds() {
+        return denialCacheTtlSeconds;
+    }
+
+    public int getDenialCacheMaxEntries() {
+        return denialCacheMaxEntries;
+    }
+
+    public int getLogLinesPerSecond() {
+        return logLinesPerSecond;
+    }
+
+    public int getLogSummaryIntervalSeconds() {
+        return logSummaryIntervalSeconds;
+    }
+
+    public boolean isAttackModeEnabled() {
+        return attackModeEnabled;
+    }
+
+    public int getAttackEnterRate() {
+        return attackEnterRate;
+    }
+
+    public int getAttackExitRate() {
+        return attackExitRate;
+    }
+
+    public int getAttackWindowSeconds() {
+        return attackWindowSeconds;
+    }
+
+    public int getAttackCooldownSeconds() {
+        return attackCooldownSeconds;
+    }
+
+    /**
+     * Gets how many logins are validated for each one that is traced.
+     *
+     * @return The sampling interval, or 0 if tracing is off.
+     */
+    public int getTraceSampleOneIn() {
+        return traceSampleOneIn;
+    }
+
+    public int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+
+    /**
+     * Gets how this proxy takes part in policy sharing.
+     *
+     * @return "off", "publish" or "follow".
+     */
+    public String getSharingMode() {
+        return sharingMode;
+    }
+
+    public Path getSharedPolicyFile() {
+        return sharedPolicyFile;
+    }
+
+    public int getSharedPolicyPollSeconds() {
+        return sharedPolicyPollSeconds;
+    }
+
+    /**
+     * Gets the version of the shared snapshot this policy's rules come from.
+     *
+     * @return The snapshot version, or -1 if the rules come from the local configuration.
+     */
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    /**
+     * Checks if a domain matches one of the allowed domain rules.
+     *
+     * @param domain The lowercased domain to check.
+     * @return True if the domain is allowed, otherwise false.
+     */
+    public boolean isDomainAllowed(String domain) {
+        return allowedDomains.matches(domain);
+    }
+
+    /**
+     * Checks if an address falls in a denied range that no allowed range exempts.
+     *
+     * @param address The source address.
+     * @return True if the address is blocked, otherwise false.
+     */
+    public boolean isAddressDenied(InetAddress address) {
+        return addressRules.isDenied(address);
+    }
+
+    public AddressMatcher getAddressRules() {
+        return addressRules;
+    }
+
+    /**
+     * Gets the rules that decide whether a connection is refused, compiled from this policy.
+     *
+     * @return The rule chain.
+     */
+    public RuleChain getRuleChain() {
+        return ruleChain;
+    }
+
+    public DomainMatcher getAllowedDomains() {
+        return allowedDomains;
+    }
+
+    public ReservedUUIDManager getReservedUUIDs() {
+        return reservedUUIDs;
+    }
+
+    public boolean isWebhookEnabled() {
+        return webhookEnabled;
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    public int getWebhookColor() {
+        return webhookColor;
+    }
+
+    public boolean isThrottleEnabled() {
+        return throttleEnabled;
+    }
+
+    public int getThrottleAttemptsPerMinute() {
+        return throttleAttemptsPerMinute;
+    }
+
+    public int getThrottleBurst() {
+        return throttleBurst;
+    }
+
+    /**
+     * Gets the pre-built kick message for throttled addresses.
+     *
+     * @return The throttled kick message.
+     */
+    public Component getThrottledKick() {
+        return throttledKick;
+    }
+
+    /**
+     * Gets the kick message used for every denial while attack mode is active.
+     *
+     * @return The attack mode kick message.
+     */
+    public Component getAttackKick() {
+        return attackKick;
+    }
+
+    /**
+     * Gets the localized reason text for a block reason.
+     *
+     * @param reason The block reason.
+     * @return The reason text.
+     */
+    public String getReason(BlockReason reason) {
+        return reasons.get(reason);
+    }
+
+    /**
+     * Gets the pre-built kick message for a block reason.
+     *
+     * @param reason The block reason.
+     * @return The kick message.
+     */
+    public Component getKickMessage(BlockReason reason) {
+        return kickMessages.get(reason);
+    }
+
+    /**
+     * Retrieves a message by its key and replaces the placeholders.
+     *
+     * @param key          The message key.
+     * @param placeholders Key-value pairs to replace in the message.
+     * @return The formatted message.
+     */
+    public String getMessage(String key, String... placeholders) {
+        MessageTemplate template = templates.get(key);
+        return template == null ? key : template.render(placeholders);
+    }
+
+    /**
+     * Retrieves a message as a component, translating '&' color codes. Messages without
+     * placeholders are returned from a cache instead of being deserialized again.
+     *
+     * @param key          The message key.
+     * @param placeholders Key-value pairs to replace in the message.
+     * @return The message component.
+     */
+    public Component getComponent(String key, String... placeholders) {
+        Component cached = staticComponents.get(key);
+        return cached != null ? cached : deserialize(getMessage(key, placeholders));
+    }
+
+    private static Component deserialize(String message) {
+        return LegacyComponentSerializer.legacyAmpersand().deserialize(message);
+    }
+}
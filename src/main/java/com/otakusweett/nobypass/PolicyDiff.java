@@ -0,0 +1,78 @@
+package com.otakusweeett.nobypass;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The differences between two policy snapshots that matter to administrators: allowed domain
+ * rules added or removed and reserved usernames added, removed or given a different UUID.
+ */
+public final class PolicyDiff {
+
+    private final Set<String> addedDomains;
+    private final Set<String> removedDomains;
+    private final ReservedUUIDManager.Changes reservedUUIDs;
+
+    private PolicyDiff(Set<String> addedDomains, Set<String> removedDomains, ReservedUUIDManager.Changes reservedUUIDs) {
+        this.addedDomains = addedDomains;
+        this.removedDomains = removedDomains;
+        this.reservedUUIDs = reservedUUIDs;
+    }
+
+    /**
+     * Computes the differences between two policies.
+     *
+     * @param previous The policy being replaced.
+     * @param current  The new policy.
+     * @return The differences.
+     */
+    public static PolicyDiff between(Policy previous, Policy current) {
+        Set<String> addedDomains = new TreeSet<>(current.getAllowedDomains().getRules());
+        addedDomains.removeAll(previous.getAllowedDomains().getRules());
+        Set<String> removedDomains = new TreeSet<>(previous.getAllowedDomains().getRules());
+        removedDomains.removeAll(current.getAllowedDomains().getRules());
+        return new PolicyDiff(addedDomains, removedDomains,
+                current.getReservedUUIDs().diff(previous.getReservedUUIDs()));
+    }
+
+    public Set<String> getAddedDomains() {
+        return addedDomains;
+    }
+
+    public Set<String> getRemovedDomains() {
+        return removedDomains;
+    }
+
+    public int getReservedUUIDsAdded() {
+        return reservedUUIDs.added();
+    }
+
+    public int getReservedUUIDsRemoved() {
+        return reservedUUIDs.removed();
+    }
+
+    public int getReservedUUIDsChanged() {
+        return reservedUUIDs.changed();
+    }
+
+    /**
+     * Checks if neither the domain rules nor the reserved UUIDs changed.
+     *
+     * @return True if there are no differences.
+     */
+    public boolean isEmpty() {
+        return addedDomains.isEmpty() && removedDomains.isEmpty()
+                && reservedUUIDs.added() == 0 && reservedUUIDs.removed() == 0 && reservedUUIDs.changed() == 0;
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) {
+            return "no domain or reserved UUID changes";
+        }
+        return "domains added " + addedDomains + ", removed " + removedDomains
+                + "; reserved UUIDs added " + reservedUUIDs.added()
+                + ", removed " + reservedUUIDs.removed()
+                + ", changed " + reservedUUIDs.changed();
+    }
+}
@@ -0,0 +1,211 @@
+package com.otakusweeett.nobypass;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PolicyManager {
+
+    private final ConfigManager configManager;
+    private final MessageManager messageManager;
+    private final Path dataDirectory;
+    private final Logger logger;
+    private final AtomicReference<Policy> policy;
+    private final ScheduledExecutorService reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NoBypass-Reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the reload thread, or before it starts
+    private ScheduledFuture<?> pollTask;
+    private int pollSeconds;
+    private long lastPublishedVersion;
+    private long lastFailedVersion = -1;
+
+    /**
+     * Compiles and publishes the first policy.
+     *
+     * @param configManager  The loaded configuration.
+     * @param messageManager The loaded messages.
+     * @param dataDirectory  The plugin data directory.
+     * @param cache          The configuration cache the managers were loaded from, or null if they
+     *                       were loaded from YAML, in which case the cache is rewritten.
+     * @param logger         The logger.
+     */
+    public PolicyManager(ConfigManager configManager, MessageManager messageManager, Path dataDirectory,
+                         ConfigCache cache, Logger logger) {
+        this.configManager = configManager;
+        this.messageManager = messageManager;
+        this.dataDirectory = dataDirectory;
+        this.logger = logger;
+        Policy local;
+        if (cache != null) {
+            local = Policy.compile(configManager, messageManager, cache.getRules());
+            logger.debug("Loaded the configuration from {}.", ConfigCache.FILE_NAME);
+        } else {
+            local = Policy.compile(configManager, messageManager);
+            writeCache(local);
+        }
+        Policy initial = share(local, null);
+        this.policy = new AtomicReference<>(initial);
+        schedulePolling(initial);
+    }
+
+    /**
+     * Gets the currently published policy. Never blocks.
+     *
+     * @return The current policy snapshot.
+     */
+    public Policy current() {
+        return policy.get();
+    }
+
+    /**
+     * Reloads the configuration and messages on the reload thread, compiles and validates a new
+     * policy and publishes it once it is fully built. If anything fails, the previous policy stays
+     * active and the returned future completes exceptionally.
+     *
+     * @return A future completed with the newly published policy.
+     */
+    public CompletableFuture<Policy> reload() {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            Policy compiled;
+            try {
+                configManager.loadConfig();
+                messageManager.loadMessages(configManager.getLanguage(), dataDirectory);
+                compiled = Policy.compile(configManager, messageManager);
+            } catch (RuntimeException e) {
+                logger.error("Rejected NoBypass reload, the previous configuration is still active: {}", e.getMessage());
+                throw new CompletionException(e);
+            }
+
+            writeCache(compiled);
+            compiled = share(compiled, policy.get());
+            Policy previous = policy.getAndSet(compiled);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.info("Reloaded NoBypass configuration in {} ms ({}).", elapsed, PolicyDiff.between(previous, compiled));
+            schedulePolling(compiled);
+            return compiled;
+        }, reloadExecutor);
+    }
+
+    /**
+     * Applies the shared policy settings to a freshly compiled policy: publishers write its rules
+     * to the shared snapshot, followers swap in the rules of the latest snapshot.
+     *
+     * @param compiled The policy compiled from the local configuration.
+     * @param previous The currently published policy, or null on startup.
+     * @return The policy to publish.
+     */
+    private Policy share(Policy compiled, Policy previous) {
+        Path file = compiled.getSharedPolicyFile();
+        switch (compiled.getSharingMode()) {
+            case "publish" -> {
+                long version = Math.max(System.currentTimeMillis(), lastPublishedVersion + 1);
+                try {
+                    PolicySnapshot.write(file, version, compiled);
+                    lastPublishedVersion = version;
+                    logger.info("Published policy snapshot version {} to {}.", version, file);
+                } catch (IOException e) {
+                    logger.error("Unable to publish the policy snapshot to {}: {}", file, e.getMessage());
+                }
+                return compiled;
+            }
+            case "follow" -> {
+                try {
+                    return compiled.withSharedRules(PolicySnapshot.read(file));
+                } catch (IOException e) {
+                    if (previous != null && previous.getSnapshotVersion() >= 0) {
+                        logger.warn("Unable to read the policy snapshot {}: {}. Keeping the shared rules of version {}.",
+                                file, e.getMessage(), previous.getSnapshotVersion());
+                        return compiled.withSharedRules(previous);
+                    }
+                    logger.warn("Unable to read the policy snapshot {}: {}. Using the rules from config.yml until it is available.",
+                            file, e.getMessage());
+                    return compiled;
+                }
+            }
+            default -> {
+                return compiled;
+            }
+        }
+    }
+
+    /**
+     * Stores a policy compiled from YAML in the configuration cache, so the next startup can skip
+     * parsing it. A cache that cannot be written only costs that startup time.
+     *
+     * @param compiled The policy compiled from the local configuration.
+     */
+    private void writeCache(Policy compiled) {
+        try {
+            ConfigCache.write(dataDirectory, configManager, messageManager, compiled);
+        } catch (IOException e) {
+            logger.warn("Unable to write the configuration cache: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts, restarts or stops polling the shared snapshot to match the given policy.
+     *
+     * @param current The policy that was just published.
+     */
+    private void schedulePolling(Policy current) {
+        boolean follow = current.getSharingMode().equals("follow");
+        if (pollTask != null && (!follow || pollSeconds != current.getSharedPolicyPollSeconds())) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+        if (follow && pollTask == null) {
+            pollSeconds = current.getSharedPolicyPollSeconds();
+            pollTask = reloadExecutor.scheduleWithFixedDelay(this::pollSnapshot, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Checks the version header of the shared snapshot and switches to its rules when it changes.
+     */
+    private void pollSnapshot() {
+        Policy current = policy.get();
+        Path file = current.getSharedPolicyFile();
+        try {
+            long version = PolicySnapshot.readVersion(file);
+            if (version < 0 || version == current.getSnapshotVersion() || version == lastFailedVersion) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            PolicySnapshot snapshot = PolicySnapshot.read(file);
+            Policy updated = current.withSharedRules(snapshot);
+            policy.set(updated);
+            long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            logger.info("Switched to policy snapshot version {} in {} us ({}).",
+                    snapshot.getVersion(), elapsed, PolicyDiff.between(current, updated));
+        } catch (IOException | RuntimeException e) {
+            // Only report each broken version once instead of on every poll
+            try {
+                lastFailedVersion = PolicySnapshot.readVersion(file);
+            } catch (IOException ignored) {
+                lastFailedVersion = -1;
+            }
+            logger.warn("Unable to load the policy snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the reload thread.
+     */
+    public void shutdown() {
+        reloadExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,251 @@
+package com.otakusweeett.nobypass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A compiled set of allowed domain rules, reserved UUIDs and address ranges stored in a binary
+ * file, so several proxies can share one policy without each of them parsing YAML.
+ * <p>
+ * Layout (big-endian): magic {@code NBPS}, format version, policy version, creation time,
+ * CRC32 and length of the body, then the body: the domain rules as length-prefixed UTF-8
+ * strings, the reserved UUID hash table as three {@code long} arrays and the address range trie
+ * as its node arrays. Files are written to a temporary file and atomically renamed, so readers
+ * never see a partial snapshot.
+ */
+public final class PolicySnapshot {
+
+    private static final int MAGIC = 0x4E425053; // "NBPS"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+
+    private final long version;
+    private final long createdAt;
+    private final DomainMatcher allowedDomains;
+    private final ReservedUUIDManager reservedUUIDs;
+    private final AddressMatcher addressRules;
+
+    private PolicySnapshot(long version, long createdAt, DomainMatcher allowedDomains,
+                           ReservedUUIDManager reservedUUIDs, AddressMatcher addressRules) {
+        this.version = version;
+        this.createdAt = createdAt;
+        this.allowedDomains = allowedDomains;
+        this.reservedUUIDs = reservedUUIDs;
+        this.addressRules = addressRules;
+    }
+
+    /**
+     * Writes the rules of a policy to a snapshot file, replacing any previous snapshot atomically.
+     *
+     * @param file    The snapshot file.
+     * @param version The version of the snapshot; followers reload whenever it changes.
+     * @param policy  The policy whose rules are written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path file, long version, Policy policy) throws IOException {
+        byte[] snapshot = encode(version, policy);
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, snapshot);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Encodes the rules of a policy in the snapshot format, header included.
+     *
+     * @param version The version of the snapshot.
+     * @param policy  The policy whose rules are encoded.
+     * @return The encoded snapshot.
+     */
+    static byte[] encode(long version, Policy policy) {
+        List<byte[]> rules = new ArrayList<>();
+        int bodyLength = Integer.BYTES;
+        for (String rule : policy.getAllowedDomains().getRules()) {
+            byte[] bytes = rule.getBytes(StandardCharsets.UTF_8);
+            rules.add(bytes);
+            bodyLength += Integer.BYTES + bytes.length;
+        }
+        ReservedUUIDManager reserved = policy.getReservedUUIDs();
+        long[] keys = reserved.getKeyTable();
+        bodyLength += Integer.BYTES + keys.length * Long.BYTES * 3;
+        AddressMatcher addressRules = policy.getAddressRules();
+        long[] nodeHigh = addressRules.getHighTable();
+        // count(4) size(4) high(8) low(8) length(1) action(1) zero(4) one(4) per node
+        bodyLength += Integer.BYTES * 2 + nodeHigh.length * (Long.BYTES * 2 + 2 + Integer.BYTES * 2);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        buffer.position(HEADER_BYTES);
+        buffer.putInt(rules.size());
+        for (byte[] rule : rules) {
+            buffer.putInt(rule.length).put(rule);
+        }
+        buffer.putInt(keys.length);
+        buffer.asLongBuffer().put(keys).put(reserved.getMostSignificantBitsTable()).put(reserved.getLeastSignificantBitsTable());
+        buffer.position(buffer.position() + keys.length * Long.BYTES * 3);
+
+        buffer.putInt(nodeHigh.length).putInt(addressRules.size());
+        buffer.asLongBuffer().put(nodeHigh).put(addressRules.getLowTable());
+        buffer.position(buffer.position() + nodeHigh.length * Long.BYTES * 2);
+        buffer.put(addressRules.getLengthTable()).put(addressRules.getActionTable());
+        buffer.asIntBuffer().put(addressRules.getZeroTable()).put(addressRules.getOneTable());
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, bodyLength);
+        buffer.putInt(0, MAGIC)
+                .putInt(4, FORMAT_VERSION)
+                .putLong(8, version)
+                .putLong(16, System.currentTimeMillis())
+                .putInt(24, (int) crc.getValue())
+                .putInt(28, bodyLength);
+        return buffer.array();
+    }
+
+    /**
+     * Reads only the version of a snapshot file.
+     *
+     * @param file The snapshot file.
+     * @return The version, or -1 if the file does not exist or is not a snapshot.
+     * @throws IOException If the file cannot be read.
+     */
+    public static long readVersion(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+                return -1;
+            }
+            return header.getLong(8);
+        }
+    }
+
+    /**
+     * Memory-maps a snapshot file and rebuilds its rules.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static PolicySnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer, file.toString());
+        }
+    }
+
+    /**
+     * Decodes a snapshot and rebuilds its rules.
+     *
+     * @param buffer The encoded snapshot, header included, from position 0 to its limit.
+     * @param source The name of the snapshot in error messages.
+     * @return The snapshot.
+     * @throws IOException If the buffer is not a valid snapshot.
+     */
+    static PolicySnapshot decode(ByteBuffer buffer, String source) throws IOException {
+        long size = buffer.limit();
+        if (size < HEADER_BYTES) {
+            throw new IOException(source + " is too small to be a policy snapshot");
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(source + " is not a policy snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException(source + " has unsupported snapshot format " + buffer.getInt(4));
+        }
+        long version = buffer.getLong(8);
+        long createdAt = buffer.getLong(16);
+        int checksum = buffer.getInt(24);
+        int bodyLength = buffer.getInt(28);
+        if (bodyLength < 0 || HEADER_BYTES + (long) bodyLength != size) {
+            throw new IOException(source + " is truncated");
+        }
+
+        ByteBuffer body = buffer.slice(HEADER_BYTES, bodyLength);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException(source + " failed its checksum");
+        }
+
+        try {
+            int ruleCount = body.getInt();
+            List<String> rules = new ArrayList<>(ruleCount);
+            for (int i = 0; i < ruleCount; i++) {
+                byte[] rule = new byte[body.getInt()];
+                body.get(rule);
+                rules.add(new String(rule, StandardCharsets.UTF_8));
+            }
+
+            int tableLength = body.getInt();
+            if (tableLength < 0 || (long) tableLength * Long.BYTES * 3 > body.remaining()) {
+                throw new IOException(source + " has a malformed reserved UUID table");
+            }
+            long[] keys = new long[tableLength];
+            long[] most = new long[tableLength];
+            long[] least = new long[tableLength];
+            body.asLongBuffer().get(keys).get(most).get(least);
+            body.position(body.position() + tableLength * Long.BYTES * 3);
+
+            int nodes = body.getInt();
+            int ranges = body.getInt();
+            if (nodes < 0 || (long) nodes * (Long.BYTES * 2 + 2 + Integer.BYTES * 2) != body.remaining()) {
+                throw new IOException(source + " has a malformed address range table");
+            }
+            long[] high = new long[nodes];
+            long[] low = new long[nodes];
+            byte[] lengths = new byte[nodes];
+            byte[] actions = new byte[nodes];
+            int[] zero = new int[nodes];
+            int[] one = new int[nodes];
+            body.asLongBuffer().get(high).get(low);
+            body.position(body.position() + nodes * Long.BYTES * 2);
+            body.get(lengths).get(actions);
+            body.asIntBuffer().get(zero).get(one);
+
+            return new PolicySnapshot(version, createdAt,
+                    DomainMatcher.compile(rules), ReservedUUIDManager.fromTable(keys, most, least),
+                    AddressMatcher.fromTables(high, low, lengths, actions, zero, one, ranges));
+        } catch (RuntimeException e) {
+            throw new IOException(source + " is malformed: " + e.getMessage(), e);
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public DomainMatcher getAllowedDomains() {
+        return allowedDomains;
+    }
+
+    public ReservedUUIDManager getReservedUUIDs() {
+        return reservedUUIDs;
+    }
+
+    public AddressMatcher getAddressRules() {
+        return addressRules;
+    }
+}
@@ -1,8 +1,13 @@
 package com.otakusweeett.nobypass;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -10,26 +15,87 @@ public class ReservedUUIDManager {
 
     private static final Logger LOGGER = Logger.getLogger(ReservedUUIDManager.class.getName());
 
-    private final MessageManager messageManager;
-    private final Map<String, String> reservedUUIDs = new HashMap<>();
+    // Slot marker for empty entries; real key hashes are never zero
+    private static final long EMPTY = 0L;
 
-    public ReservedUUIDManager(MessageManager messageManager) {
-        this.messageManager = messageManager;
+    private long[] keys = new long[16];
+    private long[] mostSignificantBits = new long[16];
+    private long[] leastSignificantBits = new long[16];
+    private int size;
+    private final BloomFilter bloomFilter;
+
+    /**
+     * Builds the reserved UUID index from the configuration section and an optional bulk file.
+     *
+     * @param reservedUUIDsFromConfig The map of reserved UUIDs from the configuration.
+     * @param bulkFile                A file with one "username uuid" entry per line, or null.
+     */
+    public ReservedUUIDManager(Map<String, Map<String, String>> reservedUUIDsFromConfig, Path bulkFile) {
+        Set<UUID> seenUUIDs = new HashSet<>();
+        loadFromConfig(reservedUUIDsFromConfig, seenUUIDs);
+        if (bulkFile != null) {
+            loadFromFile(bulkFile, seenUUIDs);
+        }
+
+        this.bloomFilter = buildBloomFilter();
+
+        if (size == 0) {
+            LOGGER.warning("No reserved UUIDs found in configuration.");
+            return;
+        }
+        LOGGER.info("Successfully loaded " + size + " reserved UUIDs (index: " + (getMemoryFootprint() / 1024) + " KiB).");
+    }
+
+    private ReservedUUIDManager(long[] keys, long[] mostSignificantBits, long[] leastSignificantBits) {
+        this.keys = keys;
+        this.mostSignificantBits = mostSignificantBits;
+        this.leastSignificantBits = leastSignificantBits;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                size++;
+            }
+        }
+        this.bloomFilter = buildBloomFilter();
+    }
+
+    /**
+     * Rebuilds an index from the hash table of another index, as stored in a policy snapshot.
+     *
+     * @param keys                 The username hashes, with 0 marking empty slots.
+     * @param mostSignificantBits  The most significant bits of each reserved UUID.
+     * @param leastSignificantBits The least significant bits of each reserved UUID.
+     * @return The index.
+     * @throws IllegalArgumentException If the arrays do not form a valid table.
+     */
+    static ReservedUUIDManager fromTable(long[] keys, long[] mostSignificantBits, long[] leastSignificantBits) {
+        if (Integer.bitCount(keys.length) != 1
+                || mostSignificantBits.length != keys.length || leastSignificantBits.length != keys.length) {
+            throw new IllegalArgumentException("Invalid reserved UUID table of length " + keys.length);
+        }
+        return new ReservedUUIDManager(keys, mostSignificantBits, leastSignificantBits);
+    }
+
+    private BloomFilter buildBloomFilter() {
+        BloomFilter filter = new BloomFilter(size);
+        for (long key : keys) {
+            if (key != EMPTY) {
+                filter.add(key);
+            }
+        }
+        return filter;
     }
 
     /**
      * Loads the reserved UUIDs from a configuration map.
      *
      * @param reservedUUIDsFromConfig The map of reserved UUIDs from the configuration.
+     * @param seenUUIDs               The UUIDs loaded so far, used to detect duplicates.
      */
-    public void loadReservedUUIDs(Map<String, Map<String, String>> reservedUUIDsFromConfig) {
-        reservedUUIDs.clear();
+    private void loadFromConfig(Map<String, Map<String, String>> reservedUUIDsFromConfig, Set<UUID> seenUUIDs) {
         if (reservedUUIDsFromConfig == null || reservedUUIDsFromConfig.isEmpty()) {
-            LOGGER.warning("No reserved UUIDs found in configuration.");
             return;
         }
 
-        Map<String, String> seenUUIDs = new HashMap<>();
         reservedUUIDsFromConfig.forEach((username, details) -> {
             if (username == null || username.isEmpty()) {
                 LOGGER.warning("Encountered an entry with an empty or null username. Skipping.");
@@ -47,44 +113,226 @@ public class ReservedUUIDManager {
                 return;
             }
 
-            if (seenUUIDs.containsKey(uuid.toLowerCase())) {
-                LOGGER.warning("Duplicate UUID detected for username: " + username + ". Ignoring duplicate entry.");
-                return;
+            add(username, uuid, seenUUIDs);
+        });
+    }
+
+    /**
+     * Loads reserved UUIDs from a bulk file. Blank lines and lines starting with '#' are ignored;
+     * the username and UUID may be separated by whitespace, ',' or ':'.
+     *
+     * @param bulkFile  The file to read.
+     * @param seenUUIDs The UUIDs loaded so far, used to detect duplicates.
+     */
+    private void loadFromFile(Path bulkFile, Set<UUID> seenUUIDs) {
+        if (!Files.exists(bulkFile)) {
+            LOGGER.warning("Reserved UUID file " + bulkFile + " does not exist. Skipping.");
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(bulkFile)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("[\\s,:]+");
+                if (parts.length != 2) {
+                    LOGGER.warning("Malformed entry at " + bulkFile.getFileName() + ":" + lineNumber + ". Skipping.");
+                    continue;
+                }
+                add(parts[0], parts[1], seenUUIDs);
             }
+        } catch (IOException e) {
+            LOGGER.warning("Unable to read reserved UUID file " + bulkFile + ": " + e.getMessage());
+        }
+    }
 
-            reservedUUIDs.put(username.toLowerCase(), uuid);
-            seenUUIDs.put(uuid.toLowerCase(), username);
-        });
+    private void add(String username, String uuidString, Set<UUID> seenUUIDs) {
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(uuidString);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid UUID '" + uuidString + "' for username: " + username + ". Skipping.");
+            return;
+        }
+
+        if (!seenUUIDs.add(uuid)) {
+            LOGGER.warning("Duplicate UUID detected for username: " + username + ". Ignoring duplicate entry.");
+            return;
+        }
+
+        long key = hashUsername(username);
+        if (indexOf(key) >= 0) {
+            LOGGER.warning("Duplicate username detected: " + username + ". Ignoring duplicate entry.");
+            return;
+        }
+
+        if ((size + 1) * 3L > keys.length * 2L) {
+            resize();
+        }
+        insert(key, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        size++;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldMost = mostSignificantBits;
+        long[] oldLeast = leastSignificantBits;
+        keys = new long[oldKeys.length * 2];
+        mostSignificantBits = new long[oldKeys.length * 2];
+        leastSignificantBits = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                insert(oldKeys[i], oldMost[i], oldLeast[i]);
+            }
+        }
+    }
+
+    private void insert(long key, long most, long least) {
+        int mask = keys.length - 1;
+        int index = (int) key & mask;
+        while (keys[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        mostSignificantBits[index] = most;
+        leastSignificantBits[index] = least;
+    }
 
-        LOGGER.info("Successfully loaded " + reservedUUIDs.size() + " reserved UUIDs.");
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int index = (int) key & mask;
+        long current;
+        while ((current = keys[index]) != EMPTY) {
+            if (current == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
     }
 
     /**
-     * Checks if a UUID is reserved for a specific username.
+     * Checks if a UUID is allowed for a specific username. The check allocates nothing: the
+     * username is hashed with ASCII case folding and the UUID is compared by its bits.
      *
      * @param username The username to check.
      * @param uuid     The UUID to validate.
-     * @return True if the UUID matches the reserved UUID for the username, false otherwise.
+     * @return True if the username has no reserved UUID or the UUID matches it, false otherwise.
      */
-    public boolean isUUIDReserved(String username, String uuid) {
+    public boolean isUUIDReserved(String username, UUID uuid) {
         if (username == null || uuid == null) {
             LOGGER.warning("Attempted to check a null username or UUID.");
             return false;
         }
-        String reservedUUID = reservedUUIDs.get(username.toLowerCase());
-        boolean result = uuid.equalsIgnoreCase(reservedUUID);
-        if (!result) {
-            LOGGER.fine("UUID mismatch for username: " + username + ". Expected: " + reservedUUID + ", Got: " + uuid);
+
+        long key = hashUsername(username);
+        if (!bloomFilter.mightContain(key)) {
+            return true; // Not a reserved username
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            return true;
+        }
+
+        boolean result = uuid.getMostSignificantBits() == mostSignificantBits[index]
+                && uuid.getLeastSignificantBits() == leastSignificantBits[index];
+        if (!result && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("UUID mismatch for username: " + username + ". Expected: "
+                    + new UUID(mostSignificantBits[index], leastSignificantBits[index]) + ", Got: " + uuid);
         }
         return result;
     }
 
     /**
-     * Retrieves an unmodifiable view of the reserved UUIDs.
+     * Gets the number of reserved UUIDs.
      *
-     * @return An unmodifiable map of reserved UUIDs.
+     * @return The number of entries.
      */
-    public Map<String, String> getReservedUUIDs() {
-        return Collections.unmodifiableMap(reservedUUIDs);
+    public int size() {
+        return size;
+    }
+
+    long[] getKeyTable() {
+        return keys;
+    }
+
+    long[] getMostSignificantBitsTable() {
+        return mostSignificantBits;
+    }
+
+    long[] getLeastSignificantBitsTable() {
+        return leastSignificantBits;
+    }
+
+    /**
+     * Compares this index with a previous one.
+     *
+     * @param previous The index to compare against.
+     * @return The number of usernames added, removed and given a different UUID.
+     */
+    Changes diff(ReservedUUIDManager previous) {
+        int added = 0;
+        int changed = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == EMPTY) {
+                continue;
+            }
+            int index = previous.indexOf(keys[i]);
+            if (index < 0) {
+                added++;
+            } else if (previous.mostSignificantBits[index] != mostSignificantBits[i]
+                    || previous.leastSignificantBits[index] != leastSignificantBits[i]) {
+                changed++;
+            }
+        }
+        // Every username of the previous index is either still here or was removed
+        int removed = previous.size - (size - added);
+        return new Changes(added, removed, changed);
+    }
+
+    /**
+     * The number of reserved usernames added, removed and changed between two indexes.
+     */
+    record Changes(int added, int removed, int changed) {
+    }
+
+    /**
+     * Gets the approximate heap memory used by the index and its Bloom filter.
+     *
+     * @return The size in bytes.
+     */
+    public long getMemoryFootprint() {
+        return (long) keys.length * Long.BYTES * 3 + bloomFilter.sizeInBytes();
+    }
+
+    /**
+     * Hashes a username to a non-zero 64-bit key, folding ASCII letters to lower case.
+     *
+     * @param username The username to hash.
+     * @return The key hash.
+     */
+    static long hashUsername(String username) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            hash ^= c;
+            hash *= 0x100000001b3L;
+        }
+        // Finalizer from MurmurHash3 so that low bits are usable as a table index
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1L : hash;
     }
 }
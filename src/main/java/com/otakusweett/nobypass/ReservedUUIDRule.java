@@ -0,0 +1,41 @@
+package com.otakusweeett.nobypass;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * Refuses logins with a reserved username whose UUID does not match the reserved one.
+ */
+public class ReservedUUIDRule implements Rule {
+
+    private final ReservedUUIDManager reservedUUIDs;
+
+    public ReservedUUIDRule(ReservedUUIDManager reservedUUIDs) {
+        this.reservedUUIDs = reservedUUIDs;
+    }
+
+    @Override
+    public String getName() {
+        return "reserved-uuid";
+    }
+
+    @Override
+    public Scope getScope() {
+        return Scope.LOGIN;
+    }
+
+    @Override
+    public int getCost() {
+        return 1;
+    }
+
+    @Override
+    public BlockReason getBlockReason() {
+        return BlockReason.UUID_MISMATCH;
+    }
+
+    @Override
+    public boolean denies(String username, UUID uuid, String domain, InetAddress address) {
+        return !reservedUUIDs.isUUIDReserved(username, uuid);
+    }
+}
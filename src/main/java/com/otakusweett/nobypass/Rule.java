@@ -0,0 +1,63 @@
+package com.otakusweeett.nobypass;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * A check that can refuse a connection. Rules are compiled into a {@link RuleChain} with the
+ * policy; each declares the login stage it runs at and a relative cost, so the chain can run
+ * the cheapest and most selective rules first and stop at the first one that denies.
+ * <p>
+ * Rules must be thread-safe and must not depend on which other rules ran before them, since the
+ * chain reorders them while the proxy is running.
+ */
+public interface Rule {
+
+    /**
+     * The stage of the login a rule runs at, which decides what is known about the connection.
+     */
+    enum Scope {
+        /**
+         * Before encryption and session authentication; the UUID is not known yet.
+         */
+        PRE_LOGIN,
+        /**
+         * After authentication; the UUID is known.
+         */
+        LOGIN
+    }
+
+    /**
+     * Gets the name of the rule, used in statistics and decision traces.
+     *
+     * @return The rule name.
+     */
+    String getName();
+
+    Scope getScope();
+
+    /**
+     * Gets the relative cost of evaluating the rule once. A hash lookup costs 1.
+     *
+     * @return The cost.
+     */
+    int getCost();
+
+    /**
+     * Gets the reason reported when this rule denies a connection.
+     *
+     * @return The block reason.
+     */
+    BlockReason getBlockReason();
+
+    /**
+     * Checks if the rule denies a connection.
+     *
+     * @param username The username.
+     * @param uuid     The UUID, or null at pre-login.
+     * @param domain   The virtual host, or null.
+     * @param address  The source address.
+     * @return True if the connection must be refused.
+     */
+    boolean denies(String username, UUID uuid, String domain, InetAddress address);
+}
@@ -0,0 +1,151 @@
+package com.otakusweeett.nobypass;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The rules of a policy, ordered per login stage so that a connection is refused as cheaply as
+ * possible. Evaluation stops at the first rule that denies; since every rule must pass for a
+ * connection to be allowed, the order never changes whether a connection is allowed, only how
+ * much work a denial takes and which reason it reports.
+ * <p>
+ * Rules start ordered by declared cost. Each rule counts how often it runs and denies, and
+ * {@link #reorder()} periodically sorts them by cost divided by deny rate, which minimizes the
+ * expected cost of reaching a denial. During a wave that fails one rule, that rule moves first.
+ */
+public class RuleChain {
+
+    // Weight of the previous deny rate against the rate measured since the last reorder
+    private static final double RATE_SMOOTHING = 0.5;
+    private static final double MIN_DENY_RATE = 0.001;
+
+    // One chain per scope, indexed by ordinal and swapped whole when reordered
+    private final AtomicReferenceArray<Link[]> chains = new AtomicReferenceArray<>(Rule.Scope.values().length);
+    private final List<Link> links = new ArrayList<>();
+
+    /**
+     * Compiles the given rules into chains, cheapest first.
+     *
+     * @param rules The rules of all stages.
+     */
+    public RuleChain(List<Rule> rules) {
+        for (Rule rule : rules) {
+            links.add(new Link(rule));
+        }
+        for (Rule.Scope scope : Rule.Scope.values()) {
+            chains.set(scope.ordinal(), links.stream()
+                    .filter(link -> link.rule.getScope() == scope)
+                    .sorted(Comparator.comparingInt(link -> link.rule.getCost()))
+                    .toArray(Link[]::new));
+        }
+    }
+
+    /**
+     * Runs the rules of a stage until one denies the connection.
+     *
+     * @param scope    The login stage.
+     * @param username The username.
+     * @param uuid     The UUID, or null at pre-login.
+     * @param domain   The virtual host, or null.
+     * @param address  The source address.
+     * @param trace    The decision trace to record each rule into, or null if not sampled.
+     * @return The rule that denied the connection, or null if every rule passed.
+     */
+    public Rule evaluate(Rule.Scope scope, String username, UUID uuid, String domain, InetAddress address,
+                         DecisionTracer.Trace trace) {
+        for (Link link : chains.get(scope.ordinal())) {
+            long start = trace == null ? 0 : System.nanoTime();
+            boolean denied = link.rule.denies(username, uuid, domain, address);
+            if (trace != null) {
+                trace.step(link.rule.getName(), denied ? "denied" : "passed", System.nanoTime() - start);
+            }
+            link.evaluated.increment();
+            if (denied) {
+                link.denied.increment();
+                return link.rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Updates the deny rate of every rule with the counts since the last call and reorders the
+     * chains by expected cost. Called periodically by the scheduler.
+     */
+    public synchronized void reorder() {
+        for (Link link : links) {
+            link.updateRate();
+        }
+        for (int i = 0; i < chains.length(); i++) {
+            Link[] reordered = chains.get(i).clone();
+            // Stable, so rules with equal scores keep their current order
+            Arrays.sort(reordered, Comparator.comparingDouble(Link::score));
+            chains.set(i, reordered);
+        }
+    }
+
+    /**
+     * Gets the statistics of every rule, in evaluation order per stage.
+     *
+     * @return The rule statistics.
+     */
+    public List<RuleStats> getStats() {
+        List<RuleStats> stats = new ArrayList<>();
+        for (int i = 0; i < chains.length(); i++) {
+            Link[] chain = chains.get(i);
+            for (int position = 0; position < chain.length; position++) {
+                Link link = chain[position];
+                stats.add(new RuleStats(link.rule, position + 1, link.evaluated.sum(), link.denied.sum()));
+            }
+        }
+        return stats;
+    }
+
+    private static final class Link {
+
+        private final Rule rule;
+        private final LongAdder evaluated = new LongAdder();
+        private final LongAdder denied = new LongAdder();
+        // Only touched by reorder()
+        private long lastEvaluated;
+        private long lastDenied;
+        private double denyRate = MIN_DENY_RATE;
+
+        private Link(Rule rule) {
+            this.rule = rule;
+        }
+
+        private void updateRate() {
+            long evaluatedNow = evaluated.sum();
+            long deniedNow = denied.sum();
+            long evaluatedDelta = evaluatedNow - lastEvaluated;
+            if (evaluatedDelta > 0) {
+                double measured = (double) (deniedNow - lastDenied) / evaluatedDelta;
+                denyRate = RATE_SMOOTHING * denyRate + (1 - RATE_SMOOTHING) * measured;
+            }
+            lastEvaluated = evaluatedNow;
+            lastDenied = deniedNow;
+        }
+
+        private double score() {
+            return rule.getCost() / Math.max(MIN_DENY_RATE, denyRate);
+        }
+    }
+
+    /**
+     * The counters of one rule.
+     *
+     * @param rule      The rule.
+     * @param position  Its position in the chain of its stage, starting at 1.
+     * @param evaluated How often it ran.
+     * @param denied    How often it denied a connection.
+     */
+    public record RuleStats(Rule rule, int position, long evaluated, long denied) {
+    }
+}
@@ -0,0 +1,66 @@
+package com.otakusweeett.nobypass;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ValidationMetrics {
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final Map<BlockReason, LongAdder> blocked = new EnumMap<>(BlockReason.class);
+    private final LatencyHistogram preLoginLatency = new LatencyHistogram();
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+
+    public ValidationMetrics() {
+        for (BlockReason reason : BlockReason.values()) {
+            blocked.put(reason, new LongAdder());
+        }
+    }
+
+    public void recordAllowed() {
+        allowed.increment();
+    }
+
+    public void recordBlocked(BlockReason reason) {
+        blocked.get(reason).increment();
+    }
+
+    public void recordThrottled() {
+        throttled.increment();
+    }
+
+    public LatencyHistogram getPreLoginLatency() {
+        return preLoginLatency;
+    }
+
+    public LatencyHistogram getLoginLatency() {
+        return loginLatency;
+    }
+
+    /**
+     * Gets the number of blocks for a reason.
+     *
+     * @param reason The block reason.
+     * @return The block count.
+     */
+    public long getBlocked(BlockReason reason) {
+        return blocked.get(reason).sum();
+    }
+
+    /**
+     * Gets the cumulative count of every outcome, keyed by a chart-friendly name.
+     *
+     * @return The outcome counts, in a stable order.
+     */
+    public Map<String, Long> getOutcomeCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("allowed", allowed.sum());
+        for (Map.Entry<BlockReason, LongAdder> entry : blocked.entrySet()) {
+            counts.put(entry.getKey().name().toLowerCase().replace('_', '-'), entry.getValue().sum());
+        }
+        counts.put("throttled", throttled.sum());
+        return counts;
+    }
+}
@@ -3,23 +3,58 @@ package com.otakusweeett.nobypass;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import okhttp3.*;
+import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class WebhookManager {
 
+    private static final int MAX_BATCH_RECORDS = 1024;
+    private static final long BATCH_WINDOW_MILLIS = 5000;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int MAX_EMBEDS = 10;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final MediaType JSON = MediaType.get("application/json");
+
     private final OkHttpClient httpClient = new OkHttpClient();
-    private Map<String, Object> webhookConfig;
-    private final MessageManager messageManager;
+    private final Supplier<Policy> policySupplier;
+    private final Logger logger;
+    private final WebhookSpool spool;
+    private final Thread sender;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
 
-    public WebhookManager(Map<String, Object> webhookConfig, MessageManager messageManager) {
-        this.webhookConfig = webhookConfig;
-        this.messageManager = messageManager;
+    private volatile boolean running = true;
+
+    public WebhookManager(Supplier<Policy> policySupplier, Path spoolDirectory, Logger logger) {
+        this.policySupplier = policySupplier;
+        this.logger = logger;
+        this.spool = new WebhookSpool(spoolDirectory, logger);
+        this.sender = new Thread(this::runSender, "NoBypass-Webhook");
+        this.sender.setDaemon(true);
+        this.sender.start();
     }
 
     /**
-     * Sends a blocked connection notification via Discord webhook.
+     * Writes a blocked connection notification to the webhook spool. The notification is kept
+     * on disk until Discord accepts it; if the spool is full, the oldest notifications are
+     * discarded and counted.
      *
      * @param username The player's username.
      * @param domain   The domain the player used.
@@ -28,65 +63,370 @@ public class WebhookManager {
      * @param skinUrl  The URL of the player's skin.
      */
     public void sendBlockedConnection(String username, String domain, String ip, String reason, String skinUrl) {
-        boolean enabled = (boolean) webhookConfig.getOrDefault("enabled", false);
-        String webhookUrl = (String) webhookConfig.getOrDefault("url", "");
-
-        if (!enabled || webhookUrl.isEmpty()) {
+        Policy policy = policySupplier.get();
+        if (!policy.isWebhookEnabled() || policy.getWebhookUrl().isEmpty()) {
             return; // Webhook is disabled or URL is not set, silently skip
         }
 
-        // Retrieve and format the title and description from the message manager
-        String title = messageManager.getMessage("webhook-title");
-        String descriptionTemplate = messageManager.getMessage("webhook-description");
-        String description = descriptionTemplate
-                .replace("{username}", username)
-                .replace("{domain}", domain)
-                .replace("{ip}", ip)
-                .replace("{reason}", reason);
+        try {
+            spool.append(new BlockedConnection(username, domain, ip, reason, skinUrl).encode());
+            queued.increment();
+        } catch (IOException e) {
+            failed.increment();
+        }
+    }
 
-        // Create the embed object
-        JsonObject embed = new JsonObject();
-        embed.addProperty("title", title);
-        embed.addProperty("description", description);
-        embed.addProperty("color", ((Number) webhookConfig.getOrDefault("color", 16711680)).intValue());
+    /**
+     * Writes a free-form notice, such as an attack mode announcement, to the webhook spool.
+     * Notices are delivered in order with blocked connection notifications.
+     *
+     * @param title       The embed title.
+     * @param description The embed description.
+     */
+    public void sendNotice(String title, String description) {
+        Policy policy = policySupplier.get();
+        if (!policy.isWebhookEnabled() || policy.getWebhookUrl().isEmpty()) {
+            return;
+        }
 
-        JsonObject thumbnail = new JsonObject();
-        thumbnail.addProperty("url", skinUrl);
-        embed.add("thumbnail", thumbnail);
+        try {
+            spool.append(new Notice(title, description, System.currentTimeMillis()).encode());
+            queued.increment();
+        } catch (IOException e) {
+            failed.increment();
+        }
+    }
 
-        JsonArray embeds = new JsonArray();
-        embeds.add(embed);
+    /**
+     * Stops the sender thread. Notifications still in the spool are sent after the next start.
+     */
+    public void shutdown() {
+        running = false;
+        sender.interrupt();
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
 
-        JsonObject payload = new JsonObject();
-        payload.add("embeds", embeds);
+    public long getQueueDepth() {
+        return spool.getPending();
+    }
+
+    public long getQueuedCount() {
+        return queued.sum();
+    }
 
-        RequestBody body = RequestBody.create(payload.toString(), MediaType.get("application/json"));
+    public long getDroppedCount() {
+        return spool.getDiscardedCount();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    private void runSender() {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (running) {
+            try {
+                if (!spool.awaitPending(1, TimeUnit.SECONDS)) {
+                    continue;
+                }
+
+                WebhookSpool.Batch batch = spool.read(MAX_BATCH_RECORDS);
+                int fitting = fittingRecords(batch.getRecords());
+                if (fitting < batch.getRecords().size()) {
+                    // Leave the notices that do not fit in one message in the spool for the next batch
+                    batch = spool.read(fitting);
+                }
+                List<SpoolRecord> records = decode(batch);
+                if (!records.isEmpty()) {
+                    // Give notifications that just arrived a moment to gather into a single message
+                    long wait = records.get(0).timestamp() + BATCH_WINDOW_MILLIS - System.currentTimeMillis();
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                        continue;
+                    }
+                }
+
+                if (records.isEmpty() || send(policySupplier.get(), records)) {
+                    spool.commit(batch);
+                    backoff = INITIAL_BACKOFF_MILLIS;
+                } else {
+                    // Keep the batch in the spool and try again later
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                logger.warn("Unexpected error while sending webhook notification.", e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Counts the leading records that fit in one message, with room for at least one embed of
+     * blocked connections after the notices.
+     *
+     * @return The number of records to send.
+     */
+    private static int fittingRecords(List<byte[]> records) {
+        int notices = 0;
+        for (int i = 0; i < records.size(); i++) {
+            if (SpoolRecord.isNotice(records.get(i)) && ++notices == MAX_EMBEDS) {
+                return i;
+            }
+        }
+        return records.size();
+    }
+
+    private List<SpoolRecord> decode(WebhookSpool.Batch batch) {
+        List<SpoolRecord> records = new ArrayList<>(batch.getRecords().size());
+        for (byte[] record : batch.getRecords()) {
+            try {
+                records.add(SpoolRecord.decode(record));
+            } catch (IOException e) {
+                failed.increment();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Sends a batch to the webhook.
+     *
+     * @return True if the batch is done with, false if it should be retried later.
+     */
+    private boolean send(Policy policy, List<SpoolRecord> batch) throws InterruptedException {
+        String webhookUrl = policy.getWebhookUrl();
+        if (!policy.isWebhookEnabled() || webhookUrl.isEmpty()) {
+            return true; // Disabled by a reload while events were spooled
+        }
+
+        RequestBody body = RequestBody.create(buildPayload(policy, batch).toString(), JSON);
         Request request = new Request.Builder()
                 .url(webhookUrl)
                 .post(body)
                 .build();
 
-        httpClient.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                // Optionally log or handle the failure
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (response.code() == 429) {
+                    rateLimited.increment();
+                    Thread.sleep(retryAfterMillis(response));
+                    continue;
+                }
+                if (response.code() >= 500) {
+                    logger.warn("Discord webhook responded with HTTP {}, will retry.", response.code());
+                    return false;
+                }
+                if (!response.isSuccessful()) {
+                    // The request itself was refused; sending it again would not help
+                    failed.increment();
+                    logger.warn("Discord webhook responded with HTTP {}, dropping {} notification(s).",
+                            response.code(), batch.size());
+                    return true;
+                }
+
+                sent.increment();
+                // Wait out the bucket instead of provoking a 429 on the next message
+                if ("0".equals(response.header("X-RateLimit-Remaining"))) {
+                    Thread.sleep(parseSeconds(response.header("X-RateLimit-Reset-After"), 1000));
+                }
+                return true;
+            } catch (IOException e) {
+                logger.warn("Failed to send Discord webhook notification, will retry: {}", e.getMessage());
+                return false;
             }
+        }
+        logger.warn("Discord webhook is still rate limited, will retry {} notification(s).", batch.size());
+        return false;
+    }
+
+    private JsonObject buildPayload(Policy policy, List<SpoolRecord> batch) {
+        JsonArray embeds = new JsonArray();
+        List<BlockedConnection> connections = new ArrayList<>(batch.size());
+        for (SpoolRecord record : batch) {
+            if (record instanceof Notice notice) {
+                // At most MAX_EMBEDS - 1 per batch, see fittingRecords
+                embeds.add(buildNoticeEmbed(policy, notice));
+            } else {
+                connections.add((BlockedConnection) record);
+            }
+        }
+
+        // Collapse repeated attempts from the same address into one embed
+        Map<String, List<BlockedConnection>> byAddress = new LinkedHashMap<>();
+        for (BlockedConnection connection : connections) {
+            byAddress.computeIfAbsent(connection.ip(), ip -> new ArrayList<>()).add(connection);
+        }
 
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                response.close();
+        if (byAddress.size() <= MAX_EMBEDS - embeds.size()) {
+            for (List<BlockedConnection> addressConnections : byAddress.values()) {
+                embeds.add(buildEmbed(policy, addressConnections));
             }
-        });
+        } else {
+            embeds.add(buildSummaryEmbed(policy, connections, byAddress));
+        }
+
+        JsonObject payload = new JsonObject();
+        payload.add("embeds", embeds);
+        return payload;
+    }
+
+    private JsonObject buildEmbed(Policy policy, List<BlockedConnection> connections) {
+        BlockedConnection connection = connections.get(0);
+        String description = policy.getMessage("webhook-description",
+                "username", connection.username(),
+                "domain", connection.domain(),
+                "ip", connection.ip(),
+                "reason", connection.reason());
+        if (connections.size() > 1) {
+            description += "\n" + policy.getMessage("webhook-attempts", "count", String.valueOf(connections.size()));
+        }
+
+        JsonObject embed = new JsonObject();
+        embed.addProperty("title", policy.getMessage("webhook-title"));
+        embed.addProperty("description", description);
+        embed.addProperty("color", policy.getWebhookColor());
+
+        JsonObject thumbnail = new JsonObject();
+        thumbnail.addProperty("url", connection.skinUrl());
+        embed.add("thumbnail", thumbnail);
+        return embed;
+    }
+
+    private JsonObject buildNoticeEmbed(Policy policy, Notice notice) {
+        JsonObject embed = new JsonObject();
+        embed.addProperty("title", notice.title());
+        embed.addProperty("description", notice.description());
+        embed.addProperty("color", policy.getWebhookColor());
+        return embed;
+    }
+
+    private JsonObject buildSummaryEmbed(Policy policy, List<BlockedConnection> batch, Map<String, List<BlockedConnection>> byAddress) {
+        List<Map.Entry<String, List<BlockedConnection>>> top = new ArrayList<>(byAddress.entrySet());
+        top.sort((a, b) -> Integer.compare(b.getValue().size(), a.getValue().size()));
+
+        StringBuilder topAddresses = new StringBuilder();
+        for (int i = 0; i < Math.min(5, top.size()); i++) {
+            Map.Entry<String, List<BlockedConnection>> entry = top.get(i);
+            topAddresses.append("\n").append(entry.getKey()).append(" (").append(entry.getValue().size()).append(")");
+        }
+
+        long seconds = Math.max(1, (System.currentTimeMillis() - batch.get(0).timestamp()) / 1000);
+        JsonObject embed = new JsonObject();
+        embed.addProperty("title", policy.getMessage("webhook-summary-title"));
+        embed.addProperty("description", policy.getMessage("webhook-summary-description",
+                "count", String.format("%,d", batch.size()),
+                "ips", String.format("%,d", byAddress.size()),
+                "seconds", String.valueOf(seconds),
+                "top", topAddresses.toString()));
+        embed.addProperty("color", policy.getWebhookColor());
+        return embed;
+    }
+
+    private static long retryAfterMillis(Response response) {
+        return parseSeconds(response.header("Retry-After"), 5000);
+    }
+
+    private static long parseSeconds(String value, long fallbackMillis) {
+        if (value == null) {
+            return fallbackMillis;
+        }
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+        } catch (NumberFormatException e) {
+            return fallbackMillis;
+        }
     }
 
     /**
-     * Updates the webhook configuration.
-     *
-     * @param newConfig The new webhook configuration.
+     * A record of the webhook spool: a blocked connection or a notice.
      */
-    public void updateConfig(Map<String, Object> newConfig) {
-        if (newConfig != null) {
-            this.webhookConfig = newConfig;
+    private interface SpoolRecord {
+
+        // First byte of every encoded record
+        byte BLOCKED_CONNECTION = 0;
+        byte NOTICE = 1;
+
+        long timestamp();
+
+        byte[] encode() throws IOException;
+
+        static boolean isNotice(byte[] record) {
+            return record.length > 0 && record[0] == NOTICE;
+        }
+
+        static SpoolRecord decode(byte[] record) throws IOException {
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record))) {
+                byte type = input.readByte();
+                long timestamp = input.readLong();
+                return switch (type) {
+                    case BLOCKED_CONNECTION -> new BlockedConnection(input.readUTF(), input.readUTF(),
+                            input.readUTF(), input.readUTF(), input.readUTF(), timestamp);
+                    case NOTICE -> new Notice(input.readUTF(), input.readUTF(), timestamp);
+                    default -> throw new IOException("Unknown webhook spool record type " + type);
+                };
+            }
+        }
+    }
+
+    private record Notice(String title, String description, long timestamp) implements SpoolRecord {
+
+        @Override
+        public byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            try (DataOutputStream output = new DataOutputStream(bytes)) {
+                output.writeByte(NOTICE);
+                output.writeLong(timestamp);
+                output.writeUTF(title);
+                output.writeUTF(description);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private record BlockedConnection(String username, String domain, String ip, String reason, String skinUrl,
+                                     long timestamp) implements SpoolRecord {
+
+        private BlockedConnection(String username, String domain, String ip, String reason, String skinUrl) {
+            this(username, domain, ip, reason, skinUrl, System.currentTimeMillis());
+        }
+
+        @Override
+        public byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            try (DataOutputStream output = new DataOutputStream(bytes)) {
+                output.writeByte(BLOCKED_CONNECTION);
+                output.writeLong(timestamp);
+                output.writeUTF(username);
+                output.writeUTF(domain);
+                output.writeUTF(ip);
+                output.writeUTF(reason);
+                output.writeUTF(skinUrl);
+            }
+            return bytes.toByteArray();
         }
     }
 }
@@ -0,0 +1,421 @@
+package com.otakusweeett.nobypass;
+
+import org.slf4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only on-disk queue of webhook notifications, split into segment files. Writers append
+ * length-prefixed, checksummed records to the newest segment; a single reader consumes them in
+ * order and persists its position, so notifications survive restarts and Discord outages.
+ * When the spool exceeds its size limit the oldest segment is discarded.
+ */
+public class WebhookSpool {
+
+    // length(4) crc32(4) payload
+    private static final int FRAME_HEADER = 8;
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+    private static final long MAX_BYTES = 16L * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final String OFFSET_FILE = "offset";
+
+    private final Path directory;
+    private final Logger logger;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final LongAdder discarded = new LongAdder();
+
+    private FileChannel channel;
+    private long readSegment;
+    private long readPosition;
+    private int readRecords;
+    private boolean enabled = true;
+
+    public WebhookSpool(Path directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+        try {
+            Files.createDirectories(directory);
+            open();
+        } catch (IOException e) {
+            logger.error("Unable to open the webhook spool in {}. Webhook notifications will not be sent.", directory, e);
+            enabled = false;
+        }
+    }
+
+    private void open() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.sorted().toList()) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long id = Long.parseLong(name, SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length(), 10);
+                    Segment segment = new Segment(id, file);
+                    segment.size = Files.size(file);
+                    if (segment.size == 0) {
+                        Files.delete(file);
+                        continue;
+                    }
+                    segment.records = countRecords(file, segment.size, 0)[0];
+                    segments.addLast(segment);
+                }
+            }
+        }
+
+        // Resume where the reader stopped; a missing or stale offset starts at the oldest segment
+        Path offsetFile = directory.resolve(OFFSET_FILE);
+        if (Files.exists(offsetFile)) {
+            ByteBuffer offset = ByteBuffer.wrap(Files.readAllBytes(offsetFile));
+            if (offset.remaining() == 16) {
+                readSegment = offset.getLong();
+                readPosition = offset.getLong();
+            }
+        }
+        while (!segments.isEmpty() && segments.peekFirst().id < readSegment) {
+            Files.deleteIfExists(segments.removeFirst().path);
+        }
+        if (segments.isEmpty() || segments.peekFirst().id != readSegment) {
+            readPosition = 0;
+        }
+        if (!segments.isEmpty()) {
+            Segment first = segments.peekFirst();
+            readSegment = first.id;
+            readRecords = countRecords(first.path, first.size, readPosition)[1];
+        }
+        // Always write to a fresh segment, leaving any torn tail of the previous run behind. Never
+        // reuse an id before the read position, or its records would count as delivered
+        long nextId = segments.isEmpty() ? readSegment : Math.max(segments.peekLast().id + 1, readSegment);
+        startSegment(nextId);
+        writeOffset();
+        long pending = pending();
+        if (pending > 0) {
+            logger.info("Resuming delivery of {} spooled webhook notification(s).", pending);
+        }
+    }
+
+    /**
+     * Appends a record to the spool and wakes up the reader.
+     *
+     * @param payload The record.
+     */
+    public synchronized void append(byte[] payload) {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            Segment active = segments.peekLast();
+            if (active.size >= SEGMENT_BYTES) {
+                startSegment(active.id + 1);
+                active = segments.peekLast();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+            frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+            active.size += FRAME_HEADER + payload.length;
+            active.records++;
+
+            enforceLimit();
+            notifyAll();
+        } catch (IOException e) {
+            logger.error("Unable to write to the webhook spool. Webhook notifications will no longer be sent.", e);
+            enabled = false;
+        }
+    }
+
+    /**
+     * Waits until the spool has records to read.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return True if records are pending.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitPending(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (pending() == 0 && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return pending() > 0;
+    }
+
+    /**
+     * Reads the oldest pending records without consuming them.
+     *
+     * @param max The maximum number of records to read.
+     * @return The records and the position after them, to pass to {@link #commit(Batch)}.
+     * @throws IOException If a segment cannot be read.
+     */
+    public synchronized Batch read(int max) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        long segmentId = readSegment;
+        long position = readPosition;
+        int recordsInSegment = readRecords;
+        int skipped = 0;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+        CRC32 crc = new CRC32();
+
+        for (Segment segment : segments) {
+            if (records.size() >= max) {
+                break;
+            }
+            if (segment.id < segmentId) {
+                continue;
+            }
+            long framePosition = segment.id == segmentId ? position : 0;
+            if (segment.size - framePosition < FRAME_HEADER) {
+                continue;
+            }
+
+            // Read frame by frame, so only the records of the batch are loaded while appends wait
+            int frames = 0;
+            try (FileChannel readChannel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                while (records.size() < max && segment.size - framePosition >= FRAME_HEADER) {
+                    header.clear();
+                    readFully(readChannel, header, framePosition);
+                    int length = header.getInt(0);
+                    int checksum = header.getInt(4);
+                    if (length < 0 || length > segment.size - framePosition - FRAME_HEADER) {
+                        break; // Torn tail of a previous run
+                    }
+                    byte[] payload = new byte[length];
+                    readFully(readChannel, ByteBuffer.wrap(payload), framePosition + FRAME_HEADER);
+                    framePosition += FRAME_HEADER + length;
+                    frames++;
+
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() == checksum) {
+                        records.add(payload);
+                    } else {
+                        skipped++;
+                    }
+                }
+            }
+
+            // Only move to a later segment once a record was read from it, so a committed
+            // position never points into a segment that may still be empty
+            if (frames > 0) {
+                if (segment.id != segmentId) {
+                    segmentId = segment.id;
+                    recordsInSegment = 0;
+                }
+                position = framePosition;
+                recordsInSegment += frames;
+            }
+        }
+        if (skipped > 0) {
+            logger.warn("Skipped {} corrupted webhook spool record(s).", skipped);
+        }
+        return new Batch(records, segmentId, position, recordsInSegment, records.size() + skipped);
+    }
+
+    /**
+     * Consumes the records of a batch and persists the new read position.
+     *
+     * @param batch The batch returned by {@link #read(int)}.
+     */
+    public synchronized void commit(Batch batch) {
+        if (batch.segmentId < readSegment) {
+            return; // The segment was discarded while the batch was being delivered
+        }
+        readSegment = batch.segmentId;
+        readPosition = batch.position;
+        readRecords = batch.recordsInSegment;
+
+        try {
+            // Segments before the read position are fully delivered
+            while (segments.size() > 1 && segments.peekFirst().id < readSegment) {
+                Files.deleteIfExists(segments.removeFirst().path);
+            }
+            writeOffset();
+        } catch (IOException e) {
+            logger.warn("Unable to persist the webhook spool position: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the number of records waiting to be delivered.
+     *
+     * @return The pending record count.
+     */
+    public synchronized long getPending() {
+        return pending();
+    }
+
+    /**
+     * Counts the records after the read position from the segment record counts, so it stays
+     * exact when segments are discarded while a batch is being delivered.
+     */
+    private long pending() {
+        long count = 0;
+        for (Segment segment : segments) {
+            if (segment.id >= readSegment) {
+                count += segment.records;
+            }
+        }
+        return count - readRecords;
+    }
+
+    /**
+     * Gets the number of records discarded because the spool was full.
+     *
+     * @return The discarded record count.
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    /**
+     * Closes the active segment. Pending records are delivered after the next start.
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to do
+        }
+        enabled = false;
+    }
+
+    private void enforceLimit() throws IOException {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.size;
+        }
+
+        // Drop the oldest notifications rather than the newest
+        while (total > MAX_BYTES && segments.size() > 1) {
+            Segment oldest = segments.removeFirst();
+            total -= oldest.size;
+            Files.deleteIfExists(oldest.path);
+            if (oldest.id < readSegment) {
+                continue; // Already delivered
+            }
+
+            int lost = oldest.id == readSegment ? oldest.records - readRecords : oldest.records;
+            discarded.add(lost);
+            readSegment = segments.peekFirst().id;
+            readPosition = 0;
+            readRecords = 0;
+            writeOffset();
+            logger.warn("Webhook spool is full, discarded {} undelivered notification(s).", lost);
+        }
+    }
+
+    private void startSegment(long id) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Path file = directory.resolve(String.format("%s%013d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segments.addLast(new Segment(id, file));
+    }
+
+    private void writeOffset() throws IOException {
+        Path temporary = directory.resolve(OFFSET_FILE + ".tmp");
+        Files.write(temporary, ByteBuffer.allocate(16).putLong(readSegment).putLong(readPosition).array());
+        Files.move(temporary, directory.resolve(OFFSET_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of webhook spool segment");
+            }
+        }
+    }
+
+    /**
+     * Counts the complete records of a segment file.
+     *
+     * @return The total record count and the number of records before the given position.
+     */
+    private static int[] countRecords(Path file, long size, long until) throws IOException {
+        int records = 0;
+        int before = 0;
+        try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            long position = 0;
+            while (position + FRAME_HEADER <= size) {
+                header.clear();
+                readChannel.read(header, position);
+                int length = header.getInt(0);
+                if (length < 0 || position + FRAME_HEADER + length > size) {
+                    break;
+                }
+                if (position < until) {
+                    before++;
+                }
+                position += FRAME_HEADER + length;
+                records++;
+            }
+        }
+        return new int[]{records, before};
+    }
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path path;
+        private long size;
+        private int records;
+
+        private Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Records read from the spool, along with the position to commit once they are delivered.
+     */
+    public static final class Batch {
+
+        private final List<byte[]> records;
+        private final long segmentId;
+        private final long position;
+        private final int recordsInSegment;
+        private final int consumed;
+
+        private Batch(List<byte[]> records, long segmentId, long position, int recordsInSegment, int consumed) {
+            this.records = records;
+            this.segmentId = segmentId;
+            this.position = position;
+            this.recordsInSegment = recordsInSegment;
+            this.consumed = consumed;
+        }
+
+        public List<byte[]> getRecords() {
+            return records;
+        }
+
+        public boolean isEmpty() {
+            return consumed == 0;
+        }
+    }
+}